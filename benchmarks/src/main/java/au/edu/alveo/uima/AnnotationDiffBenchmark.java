@@ -0,0 +1,137 @@
+package au.edu.alveo.uima;
+
+import au.edu.alveo.client.TextRestAnnotation;
+import au.edu.alveo.uima.conversions.AnnotationConversions;
+import au.edu.alveo.uima.conversions.FallingBackUIMAAlveoConverter;
+import au.edu.alveo.uima.conversions.UIMAToAlveoAnnConverter;
+import au.edu.alveo.uima.types.AlveoItemSource;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FSIterator;
+import org.apache.uima.cas.impl.LowLevelCAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.util.JCasUtil;
+import org.apache.uima.jcas.cas.FSArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the loop in {@link ItemAnnotationUploader#process(CAS)} which works out which
+ * annotations in a CAS are new and need uploading, on a CAS produced by the reader to which
+ * a pipeline has added a configurable number of annotations.
+ *
+ * The uploader's two modes are covered: comparing against the annotations stored by the
+ * reader (where those can be skipped by reference), and comparing against annotations
+ * re-read from the server (where every annotation is converted and fingerprinted; the
+ * server request itself is not included).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnnotationDiffBenchmark {
+	@Param({"1000", "10000"})
+	public int numExisting;
+
+	@Param({"100", "1000"})
+	public int numAdded;
+
+	@Param({"50"})
+	public int numTypes;
+
+	private CAS cas;
+	private AlveoItemSource itemSource;
+	private FSArray readerAnns;
+	private UIMAToAlveoAnnConverter converter;
+	private final AnnotationDiffer differ = new AnnotationDiffer();
+	private final LongHashSet readerAnnRefs = new LongHashSet(1024);
+	private final List<TextRestAnnotation> uploadable = new ArrayList<TextRestAnnotation>();
+
+	@Setup
+	public void setUp() throws Exception {
+		cas = new SyntheticItems(numTypes, 42).createPopulatedCas(numExisting, numExisting * 20);
+		itemSource = JCasUtil.selectSingle(cas.getJCas(), AlveoItemSource.class);
+		readerAnns = itemSource.getAnnotations();
+		converter = FallingBackUIMAAlveoConverter.withDefault(Collections.<UIMAToAlveoAnnConverter>emptyList(),
+				new String[] { ItemAnnotationUploader.DEFAULT_ANNTYPE_FEATURE },
+				new String[] { ItemAnnotationUploader.DEFAULT_LABEL_FEATURE });
+		converter.setTypeSystem(cas.getTypeSystem());
+
+		// annotations added by the pipeline are of the same types as the existing ones,
+		// but at different offsets and without the Alveo type feature
+		Random random = new Random(43);
+		TypeSystem ts = cas.getTypeSystem();
+		List<Type> types = ts.getProperlySubsumedTypes(ts.getType("au.edu.alveo.uima.types.GeneratedItemAnnotation"));
+		int textLength = cas.getDocumentText().length();
+		for (int i = 0; i < numAdded; i++) {
+			int start = random.nextInt(textLength);
+			AnnotationFS ann = cas.createAnnotation(types.get(random.nextInt(types.size())), start,
+					Math.min(textLength, start + 1 + random.nextInt(40)));
+			cas.addFsToIndexes(ann);
+		}
+	}
+
+	@Benchmark
+	public int diffAgainstReaderAnnotations() throws Exception {
+		LowLevelCAS llCas = cas.getLowLevelCAS();
+		List<AnnotationFS> origAnns = new ArrayList<AnnotationFS>(readerAnns.size());
+		readerAnnRefs.clear(readerAnns.size() + 2);
+		for (int i = 0; i < readerAnns.size(); i++) {
+			AnnotationFS origAnn = (AnnotationFS) readerAnns.get(i);
+			origAnns.add(origAnn);
+			readerAnnRefs.add(llCas.ll_getFSRef(origAnn));
+		}
+		readerAnnRefs.add(llCas.ll_getFSRef(itemSource));
+		readerAnnRefs.add(llCas.ll_getFSRef(cas.getDocumentAnnotation()));
+		return diff(origAnns, true);
+	}
+
+	@Benchmark
+	public int diffAgainstAllAnnotations() throws Exception {
+		List<AnnotationFS> origAnns = new ArrayList<AnnotationFS>(readerAnns.size());
+		for (int i = 0; i < readerAnns.size(); i++)
+			origAnns.add((AnnotationFS) readerAnns.get(i));
+		return diff(origAnns, false);
+	}
+
+	private int diff(List<AnnotationFS> origAnns, boolean skipReaderAnns) throws Exception {
+		uploadable.clear();
+		differ.startDocument(origAnns.size());
+		List<AnnotationFS> candidates = new ArrayList<AnnotationFS>();
+		LowLevelCAS llCas = cas.getLowLevelCAS();
+		FSIterator<AnnotationFS> annIter = cas.getAnnotationIndex().iterator(true);
+		while (annIter.hasNext()) {
+			AnnotationFS ann = annIter.next();
+			if (skipReaderAnns && readerAnnRefs.contains(llCas.ll_getFSRef(ann))) {
+				differ.countDuplicate();
+				continue;
+			}
+			candidates.add(ann);
+		}
+		for (TextRestAnnotation origAnn : AnnotationConversions.convertAll(converter, origAnns))
+			differ.addExisting(origAnn);
+		for (TextRestAnnotation asAlveoAnn : AnnotationConversions.convertAll(converter, candidates)) {
+			if (differ.isNew(asAlveoAnn))
+				uploadable.add(asAlveoAnn);
+		}
+		return uploadable.size();
+	}
+}
@@ -0,0 +1,59 @@
+package au.edu.alveo.uima;
+
+import au.edu.alveo.uima.conversions.DefaultUIMAToAlveoAnnConverter;
+import org.apache.uima.cas.CAS;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures populating a CAS from an item which has already been retrieved,
+ * as done by {@link ItemListCollectionReader} for every item it reads.
+ *
+ * The time includes resetting the CAS, which the reader's framework also does for each item.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ItemCASAdapterBenchmark {
+	@Param({"100", "1000", "10000"})
+	public int numAnnotations;
+
+	@Param({"50"})
+	public int numTypes;
+
+	@Param({"2"})
+	public int numDocuments;
+
+	private ItemCASAdapter adapter;
+	private ItemSnapshot item;
+	private CAS cas;
+
+	@Setup
+	public void setUp() throws Exception {
+		SyntheticItems items = new SyntheticItems(numTypes, 42);
+		item = items.createItem(0, numAnnotations, numAnnotations * 20, numDocuments);
+		cas = items.createCas();
+		adapter = new ItemCASAdapter("http://localhost/", true, true, new DefaultUIMAToAlveoAnnConverter());
+	}
+
+	@Benchmark
+	public CAS storeItemInCas() throws Exception {
+		cas.reset();
+		adapter.storeItemInCas(item, cas);
+		return cas;
+	}
+}
@@ -0,0 +1,118 @@
+package au.edu.alveo.uima;
+
+import au.edu.alveo.uima.conversions.DefaultUIMAToAlveoAnnConverter;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.TypeSystemDescriptionFactory;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates items resembling those on an Alveo server, of a configurable size, along with
+ * the type system which the collection reader would generate for them, so that the
+ * conversion code can be benchmarked without a server.
+ *
+ * Generation is deterministic for a given seed.
+ */
+public class SyntheticItems {
+	public static final String CORPUS_NAME = "synthetic";
+	private static final String SCHEMA_BASE = "http://ns.ausnc.org.au/schemas/annotation/synthetic/";
+	private static final String[] WORDS = new String[] {
+			"the", "a", "speaker", "said", "that", "it", "was", "well", "um", "yeah", "and", "then",
+			"we", "went", "down", "to", "beach", "you", "know", "right"
+	};
+
+	private final List<String> typeUris;
+	private final Random random;
+
+	/**
+	 * @param numTypes The number of distinct annotation type URIs used on the items
+	 * @param seed The seed for the random generator
+	 */
+	public SyntheticItems(int numTypes, long seed) {
+		typeUris = new ArrayList<String>(numTypes);
+		for (int i = 0; i < numTypes; i++)
+			typeUris.add(SCHEMA_BASE + "type-" + i);
+		random = new Random(seed);
+	}
+
+	public List<String> getTypeUris() {
+		return typeUris;
+	}
+
+	/** The type system the reader would create for a collection using these types */
+	public TypeSystemDescription createTypeSystemDescription()
+			throws ResourceInitializationException, URISyntaxException {
+		TypeSystemAutoAugmenter tsag = new TypeSystemAutoAugmenter(null,
+				TypeSystemDescriptionFactory.createTypeSystemDescription());
+		tsag.addCorpusTypes(CORPUS_NAME, typeUris);
+		return tsag.getTypeSystemDescription();
+	}
+
+	public CAS createCas() throws ResourceInitializationException, URISyntaxException {
+		return CasCreationUtils.createCas(createTypeSystemDescription(), null, null);
+	}
+
+	/** Create a CAS holding a synthetic item, as the collection reader would produce it */
+	public CAS createPopulatedCas(int numAnnotations, int textLength) throws Exception {
+		CAS cas = createCas();
+		ItemCASAdapter adapter = new ItemCASAdapter("http://localhost/", false, true,
+				new DefaultUIMAToAlveoAnnConverter());
+		adapter.storeItemInCas(createItem(0, numAnnotations, textLength, 0), cas);
+		return cas;
+	}
+
+	/** Create an item with the given number of annotations, placed at random over the text
+	 *
+	 * @param index Used to create a distinct item URI
+	 * @param numAnnotations The number of annotations on the item
+	 * @param textLength The approximate length of the primary text in characters
+	 * @param numDocuments The number of source documents
+	 */
+	ItemSnapshot createItem(int index, int numAnnotations, int textLength, int numDocuments) {
+		String text = createText(textLength);
+		List<ItemSnapshot.Annotation> anns = new ArrayList<ItemSnapshot.Annotation>(numAnnotations);
+		for (int i = 0; i < numAnnotations; i++) {
+			int start = random.nextInt(text.length());
+			int end = Math.min(text.length(), start + 1 + random.nextInt(40));
+			String typeUri = typeUris.get(random.nextInt(typeUris.size()));
+			anns.add(new ItemSnapshot.Annotation(typeUri, random.nextInt(4) == 0 ? "" : "label" + random.nextInt(50),
+					start, end));
+		}
+		List<ItemSnapshot.Document> docs = new ArrayList<ItemSnapshot.Document>(numDocuments);
+		for (int i = 0; i < numDocuments; i++) {
+			String docUrl = String.format("http://localhost/catalog/%s/item%d/document/doc%d.txt", CORPUS_NAME, index, i);
+			docs.add(new ItemSnapshot.Document(i == 0 ? "Text" : "Original", docUrl, text));
+		}
+		return new ItemSnapshot(String.format("http://localhost/catalog/%s/item%d", CORPUS_NAME, index),
+				text, createMetadata(index), anns, docs);
+	}
+
+	private String createText(int length) {
+		StringBuilder sb = new StringBuilder(length + 16);
+		while (sb.length() < length) {
+			sb.append(WORDS[random.nextInt(WORDS.length)]);
+			sb.append(random.nextInt(12) == 0 ? ".\n" : " ");
+		}
+		return sb.toString();
+	}
+
+	private Map<String, String> createMetadata(int index) {
+		Map<String, String> md = new HashMap<String, String>();
+		md.put("http://purl.org/dc/terms/title", "Synthetic item " + index);
+		md.put("http://purl.org/dc/terms/isPartOf", CORPUS_NAME);
+		md.put("http://purl.org/dc/terms/creator", "Benchmark");
+		md.put("http://purl.org/dc/terms/identifier", "item" + index);
+		md.put("http://www.language-archives.org/OLAC/1.1/discourse_type", "dialogue");
+		md.put("http://www.language-archives.org/OLAC/1.1/recordingdate", "2014-04-11");
+		md.put("http://www.language-archives.org/OLAC/1.1/language", "eng");
+		return md;
+	}
+}
@@ -0,0 +1,136 @@
+package au.edu.alveo.uima.conversions;
+
+import au.edu.alveo.client.TextRestAnnotation;
+import au.edu.alveo.uima.ItemAnnotationUploader;
+import au.edu.alveo.uima.SyntheticItems;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FSIterator;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures converting all of the annotations in a CAS to Alveo annotations, both directly
+ * with {@link DefaultUIMAToAlveoAnnConverter} and through the dispatch of
+ * {@link FallingBackUIMAAlveoConverter}, with a configurable number of custom converters
+ * ahead of the default one (none of which handle the annotation types, which is the worst case).
+ *
+ * Each invocation converts every annotation in the CAS once.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnnotationConversionBenchmark {
+	@Param({"1000", "10000"})
+	public int numAnnotations;
+
+	@Param({"50"})
+	public int numTypes;
+
+	@Param({"0", "4"})
+	public int numCustomConverters;
+
+	private List<AnnotationFS> annotations;
+	private List<String> typeNames;
+	private DefaultUIMAToAlveoAnnConverter defaultConverter;
+	private FallingBackUIMAAlveoConverter fallingBackConverter;
+
+	@Setup
+	public void setUp() throws Exception {
+		CAS cas = new SyntheticItems(numTypes, 42).createPopulatedCas(numAnnotations, numAnnotations * 20);
+		TypeSystem ts = cas.getTypeSystem();
+		annotations = new ArrayList<AnnotationFS>(numAnnotations);
+		typeNames = new ArrayList<String>(numAnnotations);
+		FSIterator<AnnotationFS> annIter = cas.getAnnotationIndex().iterator();
+		while (annIter.hasNext()) {
+			AnnotationFS ann = annIter.next();
+			annotations.add(ann);
+			typeNames.add(ann.getType().getName());
+		}
+
+		String[] annTypeFeatureNames = new String[] { ItemAnnotationUploader.DEFAULT_ANNTYPE_FEATURE };
+		String[] labelFeatureNames = new String[] { ItemAnnotationUploader.DEFAULT_LABEL_FEATURE };
+		defaultConverter = new DefaultUIMAToAlveoAnnConverter(annTypeFeatureNames, labelFeatureNames);
+		defaultConverter.setTypeSystem(ts);
+		List<UIMAToAlveoAnnConverter> custom = new ArrayList<UIMAToAlveoAnnConverter>(numCustomConverters);
+		for (int i = 0; i < numCustomConverters; i++)
+			custom.add(new PrefixConverter("org.example.custom" + i + "."));
+		fallingBackConverter = FallingBackUIMAAlveoConverter.withDefault(custom, annTypeFeatureNames, labelFeatureNames);
+		fallingBackConverter.setTypeSystem(ts);
+	}
+
+	@Benchmark
+	public void convertWithDefault(Blackhole bh) throws Exception {
+		for (AnnotationFS ann : annotations)
+			bh.consume(defaultConverter.convertToAlveo(ann));
+	}
+
+	@Benchmark
+	public void convertWithFallingBack(Blackhole bh) throws Exception {
+		for (AnnotationFS ann : annotations)
+			bh.consume(fallingBackConverter.convertToAlveo(ann));
+	}
+
+	@Benchmark
+	public void convertAllWithDefault(Blackhole bh) throws Exception {
+		bh.consume(AnnotationConversions.convertAll(defaultConverter, annotations));
+	}
+
+	@Benchmark
+	public void convertAllWithFallingBack(Blackhole bh) throws Exception {
+		bh.consume(AnnotationConversions.convertAll(fallingBackConverter, annotations));
+	}
+
+	@Benchmark
+	public void typeUriWithFallingBack(Blackhole bh) {
+		for (String typeName : typeNames)
+			bh.consume(fallingBackConverter.getAlveoTypeUriForTypeName(typeName));
+	}
+
+	/** A custom converter which only handles types in a given package */
+	static class PrefixConverter implements UIMAToAlveoAnnConverter {
+		private final String prefix;
+
+		PrefixConverter(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public void setTypeSystem(TypeSystem ts) {
+		}
+
+		@Override
+		public TextRestAnnotation convertToAlveo(AnnotationFS ann) {
+			return new TextRestAnnotation(getAlveoTypeUriForTypeName(ann.getType().getName()), "",
+					ann.getBegin(), ann.getEnd());
+		}
+
+		@Override
+		public String getAlveoTypeUriForTypeName(String uimaTypeName) {
+			return "http://example.org/custom/" + uimaTypeName.substring(prefix.length());
+		}
+
+		@Override
+		public boolean handlesTypeName(String uimaTypeName) {
+			return uimaTypeName.startsWith(prefix);
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package au.edu.alveo.uima.conversions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.net.URISyntaxException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the memoised {@link UIMAAlveoTypeNameMapping} with its uncached computation
+ * and with the original regex-based implementation, over a set of type URIs
+ * of the kind found on Alveo servers.
+ *
+ * Each invocation maps every URI (or type name) in the set once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UIMAAlveoTypeNameMappingBenchmark {
+	static final String[] TYPE_URIS = new String[] {
+			"http://ns.ausnc.org.au/schemas/annotation/ice/speaker",
+			"http://ns.ausnc.org.au/schemas/annotation/ice/sentence",
+			"http://ns.ausnc.org.au/schemas/annotation/ice/pause",
+			"http://ns.ausnc.org.au/schemas/annotation/ice/unclear",
+			"http://ns.ausnc.org.au/schemas/annotation/ice/overlap-set",
+			"http://ns.ausnc.org.au/schemas/annotation/art/turn",
+			"http://ns.ausnc.org.au/schemas/annotation/cooee/page",
+			"http://ns.ausnc.org.au/schemas/annotation/mitcheldelbridge/elongation",
+			"http://ns.ausnc.org.au/schemas/annotation/maus/phonetic",
+			"http://ns.ausnc.org.au/schemas/annotation/maus/word",
+			"http://ns.ausnc.org.au/schemas/annotation/austalk/phonetic",
+			"http://ns.ausnc.org.au/schemas/annotation/austalk/orthography",
+			"http://purl.org/dada/schema/0.2#span",
+			"http://alveo.edu.au/schema/annotation/pos-tag",
+			"http://types.segmentation.type.api.core.dkpro.tudarmstadt.de/Sentence",
+			"http://pos.type.lexmorph.api.core.dkpro.tudarmstadt.de/POS"
+	};
+
+	private String[] typeNames;
+
+	@Setup
+	public void setUp() throws URISyntaxException {
+		typeNames = new String[TYPE_URIS.length];
+		for (int i = 0; i < TYPE_URIS.length; i++)
+			typeNames[i] = UIMAAlveoTypeNameMapping.getTypeNameForUri(TYPE_URIS[i]);
+	}
+
+	@Benchmark
+	public void typeNameForUriMemoised(Blackhole bh) throws URISyntaxException {
+		for (String uri : TYPE_URIS)
+			bh.consume(UIMAAlveoTypeNameMapping.getTypeNameForUri(uri));
+	}
+
+	@Benchmark
+	public void typeNameForUriUncached(Blackhole bh) throws URISyntaxException {
+		for (String uri : TYPE_URIS)
+			bh.consume(UIMAAlveoTypeNameMapping.computeTypeNameForUri(uri));
+	}
+
+	@Benchmark
+	public void typeNameForUriRegex(Blackhole bh) throws URISyntaxException {
+		for (String uri : TYPE_URIS)
+			bh.consume(RegexMapping.getTypeNameForUri(uri));
+	}
+
+	@Benchmark
+	public void uriForTypeNameMemoised(Blackhole bh) {
+		for (String name : typeNames)
+			bh.consume(UIMAAlveoTypeNameMapping.getUriForTypeName(name));
+	}
+
+	@Benchmark
+	public void uriForTypeNameUncached(Blackhole bh) {
+		for (String name : typeNames)
+			bh.consume(UIMAAlveoTypeNameMapping.computeUriForTypeName(name));
+	}
+
+	@Benchmark
+	public void uriForTypeNameRegex(Blackhole bh) {
+		for (String name : typeNames)
+			bh.consume(RegexMapping.getUriForTypeName(name));
+	}
+}
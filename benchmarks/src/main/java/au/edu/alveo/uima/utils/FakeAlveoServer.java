@@ -0,0 +1,562 @@
+package au.edu.alveo.uima.utils;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process stand-in for an Alveo server, for measuring the throughput of the reader
+ * and uploader reproducibly and without network access or a real account.
+ *
+ * The server answers the requests made by the REST client: the API version, item lists,
+ * item metadata, primary text, source documents, annotations (both reading and uploading)
+ * and the SPARQL endpoint used to discover annotation types. Responses come from a
+ * fixture directory if one is set and it contains a file at the request path (for instance
+ * <code>catalog/cooee/item1.json</code>, which can be captured from a real server), and are
+ * otherwise generated deterministically:
+ * <ul>
+ *   <li>A single collection (named by {@link #setCollectionName(String)}) holds the synthetic
+ *   items <code>item0</code> to <code>item<i>n-1</i></code></li>
+ *   <li>Every item list ID returns a list containing all of the synthetic items</li>
+ *   <li>Each item has the configured number of annotations and documents, of types drawn
+ *   from a fixed set of type URIs, which are also what the SPARQL endpoint returns for the
+ *   collection (other collections have no types)</li>
+ *   <li>Uploaded annotations are counted and discarded</li>
+ * </ul>
+ *
+ * Each response can be delayed by a random latency within a configured range, and a
+ * configured fraction of requests fail with an HTTP 503 error, to exercise the retry and
+ * timeout handling. The latencies and failures are drawn from a generator seeded with
+ * {@link #setSeed(long)}, so they are reproducible for a client which makes its requests
+ * one at a time. Configuration should be set before calling {@link #start()}.
+ *
+ * Run the class directly to start a standalone server for use from another process.
+ *
+ * The responses were written by hand and are unverified: they have not been checked
+ * against what the REST client actually parses, so a client which misreads them could
+ * make a benchmark measure less work than it appears to.
+ */
+public class FakeAlveoServer {
+	private static final Logger LOG = LoggerFactory.getLogger(FakeAlveoServer.class);
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String TYPE_BASE = "http://ns.ausnc.org.au/schemas/annotation/synthetic/";
+	private static final String JSON_LD_CONTEXT = "{\"alveo\": \"http://alveo.edu.au/schema/\", " +
+			"\"dcterms\": \"http://purl.org/dc/terms/\", " +
+			"\"olac\": \"http://www.language-archives.org/OLAC/1.1/\", " +
+			"\"dada\": \"http://purl.org/dada/schema/0.2#\"}";
+	private static final String[] WORDS = new String[] {
+			"the", "a", "speaker", "said", "that", "it", "was", "well", "um", "yeah", "and", "then",
+			"we", "went", "down", "to", "beach", "you", "know", "right"
+	};
+
+	private final int port;
+	private HttpServer server;
+	private ExecutorService executor;
+	private File fixtureDir = null;
+	private String apiKey = null;
+	private String collectionName = "cooee";
+	private int numItems = 100;
+	private int numAnnotations = 200;
+	private int numTypes = 20;
+	private int numDocuments = 1;
+	private int textLength = 4000;
+	private long seed = 0;
+	private int minLatencyMillis = 0;
+	private int maxLatencyMillis = 0;
+	private double errorRate = 0.0;
+	private int numThreads = 8;
+
+	private Random random;
+	private final AtomicLong numRequests = new AtomicLong();
+	private final AtomicLong numInjectedErrors = new AtomicLong();
+	private final AtomicLong numUploadRequests = new AtomicLong();
+	private final AtomicLong numUploadedAnnotations = new AtomicLong();
+
+	/**
+	 * @param port The local port to listen on, or 0 to choose a free port
+	 */
+	public FakeAlveoServer(int port) {
+		this.port = port;
+	}
+
+	/** Serve files from this directory in preference to generated responses */
+	public void setFixtureDir(File fixtureDir) {
+		this.fixtureDir = fixtureDir;
+	}
+
+	/** Reject requests which do not supply this API key (by default any key is accepted) */
+	public void setApiKey(String apiKey) {
+		this.apiKey = apiKey;
+	}
+
+	/** The collection holding the synthetic items. This should be one which the reader
+	 * queries for types (see {@link au.edu.alveo.uima.ItemListCollectionReader#getCorpusNames()}) */
+	public void setCollectionName(String collectionName) {
+		this.collectionName = collectionName;
+	}
+
+	public void setNumItems(int numItems) {
+		this.numItems = numItems;
+	}
+
+	/** Set the size of each synthetic item
+	 *
+	 * @param numAnnotations The number of annotations on each item
+	 * @param numDocuments The number of source documents for each item
+	 * @param textLength The approximate length of the text of each item in characters
+	 */
+	public void setItemSize(int numAnnotations, int numDocuments, int textLength) {
+		this.numAnnotations = numAnnotations;
+		this.numDocuments = numDocuments;
+		this.textLength = textLength;
+	}
+
+	/** The number of distinct annotation type URIs used by the synthetic items */
+	public void setNumTypes(int numTypes) {
+		this.numTypes = numTypes;
+	}
+
+	/** The seed for generating item content and for injecting latency and failures, so that
+	 * runs can be repeated exactly, and different servers can produce different items */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/** Delay each response by a random time in the supplied range */
+	public void setLatency(int minLatencyMillis, int maxLatencyMillis) {
+		this.minLatencyMillis = minLatencyMillis;
+		this.maxLatencyMillis = Math.max(minLatencyMillis, maxLatencyMillis);
+	}
+
+	/** The fraction of requests (between 0 and 1) which fail with an HTTP 503 error */
+	public void setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+	}
+
+	/** The number of requests which can be handled at once */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+
+	public synchronized void start() throws IOException {
+		if (server != null)
+			return;
+		random = new Random(seed);
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+		server.createContext("/", new Handler());
+		executor = Executors.newFixedThreadPool(numThreads, new DaemonThreadFactory("fake-alveo"));
+		server.setExecutor(executor);
+		server.start();
+		LOG.info("Fake Alveo server listening at {}", getBaseUrl());
+	}
+
+	public synchronized void stop() {
+		if (server == null)
+			return;
+		server.stop(0);
+		executor.shutdownNow();
+		server = null;
+		executor = null;
+	}
+
+	/** The base URL to supply to the reader and uploader, once the server is started */
+	public String getBaseUrl() {
+		return String.format("http://127.0.0.1:%d/", server.getAddress().getPort());
+	}
+
+	/** The URL of the synthetic item with the supplied index */
+	public String getItemUrl(int index) {
+		return String.format("%scatalog/%s/item%d", getBaseUrl(), collectionName, index);
+	}
+
+	/** The annotation type URIs used by the synthetic items */
+	public List<String> getTypeUris() {
+		List<String> typeUris = new ArrayList<String>(numTypes);
+		for (int i = 0; i < numTypes; i++)
+			typeUris.add(TYPE_BASE + "type-" + i);
+		return typeUris;
+	}
+
+	public long getNumRequests() {
+		return numRequests.get();
+	}
+
+	public long getNumInjectedErrors() {
+		return numInjectedErrors.get();
+	}
+
+	public long getNumUploadRequests() {
+		return numUploadRequests.get();
+	}
+
+	public long getNumUploadedAnnotations() {
+		return numUploadedAnnotations.get();
+	}
+
+	private class Handler implements HttpHandler {
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				numRequests.incrementAndGet();
+				simulateLatency();
+				String path = exchange.getRequestURI().getPath();
+				if (apiKey != null && !apiKey.equals(exchange.getRequestHeaders().getFirst("X-API-KEY"))) {
+					send(exchange, 401, "application/json", "{\"error\": \"Invalid authentication token\"}");
+				} else if (shouldFail()) {
+					numInjectedErrors.incrementAndGet();
+					send(exchange, 503, "application/json", "{\"error\": \"Injected failure\"}");
+				} else if (!serveFixture(exchange, path)) {
+					serveGenerated(exchange, path);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (RuntimeException e) {
+				LOG.error("Failed to handle {}", exchange.getRequestURI(), e);
+				send(exchange, 500, "text/plain", e.toString());
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+
+	private void simulateLatency() throws InterruptedException {
+		if (maxLatencyMillis <= 0)
+			return;
+		int range = maxLatencyMillis - minLatencyMillis;
+		int latency;
+		synchronized (random) {
+			latency = minLatencyMillis + (range > 0 ? random.nextInt(range + 1) : 0);
+		}
+		Thread.sleep(latency);
+	}
+
+	private boolean shouldFail() {
+		if (errorRate <= 0)
+			return false;
+		synchronized (random) {
+			return random.nextDouble() < errorRate;
+		}
+	}
+
+	private boolean serveFixture(HttpExchange exchange, String path) throws IOException {
+		if (fixtureDir == null || path.contains(".."))
+			return false;
+		File file = new File(fixtureDir, path);
+		if (!file.isFile())
+			return false;
+		consume(exchange.getRequestBody());
+		String contentType = path.endsWith(".json") ? "application/json" :
+				path.endsWith(".xml") ? "application/sparql-results+xml" : "text/plain";
+		InputStream in = new FileInputStream(file);
+		try {
+			send(exchange, 200, contentType, readAll(in));
+		} finally {
+			in.close();
+		}
+		return true;
+	}
+
+	private void serveGenerated(HttpExchange exchange, String path) throws IOException {
+		String[] comps = path.replaceFirst("^/+", "").split("/");
+		if (path.equals("/version.json")) {
+			send(exchange, 200, "application/json", "{\"API version\": \"V2.0\"}");
+		} else if (path.equals("/item_lists.json")) {
+			send(exchange, 200, "application/json", "{\"own\": [{\"name\": \"synthetic\", \"item_list_url\": " +
+					jsonString(getBaseUrl() + "item_lists/1") + ", \"num_items\": " + numItems + "}], \"shared\": []}");
+		} else if (comps.length == 2 && comps[0].equals("item_lists")) {
+			sendItemList(exchange, stripExtension(comps[1]));
+		} else if (comps.length == 2 && comps[0].equals("sparql")) {
+			consume(exchange.getRequestBody());
+			sendTypes(exchange, comps[1]);
+		} else if (comps.length >= 3 && comps[0].equals("catalog") && comps[1].equals(collectionName)) {
+			int index = parseItemIndex(stripExtension(comps[2]));
+			if (index < 0) {
+				sendNotFound(exchange);
+			} else if (comps.length == 3) {
+				send(exchange, 200, "application/json", itemJson(index));
+			} else if (comps.length == 4 && comps[3].startsWith("primary_text")) {
+				send(exchange, 200, "text/plain", itemText(index));
+			} else if (comps.length == 4 && comps[3].startsWith("annotations")) {
+				if ("POST".equals(exchange.getRequestMethod()))
+					receiveAnnotations(exchange);
+				else
+					send(exchange, 200, "application/json", annotationsJson(index));
+			} else if (comps.length == 5 && comps[3].equals("document")) {
+				send(exchange, 200, "text/plain", itemText(index));
+			} else {
+				sendNotFound(exchange);
+			}
+		} else {
+			sendNotFound(exchange);
+		}
+	}
+
+	private void sendItemList(HttpExchange exchange, String listId) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"name\": ").append(jsonString("synthetic-" + listId));
+		sb.append(", \"num_items\": ").append(numItems).append(", \"items\": [");
+		for (int i = 0; i < numItems; i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append(jsonString(getItemUrl(i)));
+		}
+		sb.append("]}");
+		send(exchange, 200, "application/json", sb.toString());
+	}
+
+	private void sendTypes(HttpExchange exchange, String corpusName) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version='1.0' encoding='UTF-8'?>\n");
+		sb.append("<sparql xmlns='http://www.w3.org/2005/sparql-results#'>\n");
+		sb.append("<head><variable name='type'/></head>\n<results>\n");
+		if (corpusName.equals(collectionName)) {
+			for (String typeUri : getTypeUris())
+				sb.append("<result><binding name='type'><uri>").append(typeUri).append("</uri></binding></result>\n");
+		}
+		sb.append("</results>\n</sparql>\n");
+		send(exchange, 200, "application/sparql-results+xml", sb.toString());
+	}
+
+	private void receiveAnnotations(HttpExchange exchange) throws IOException {
+		String body = new String(readAll(exchange.getRequestBody()), UTF8);
+		int count = 0;
+		for (int idx = body.indexOf("\"start\""); idx >= 0; idx = body.indexOf("\"start\"", idx + 1))
+			++count;
+		numUploadRequests.incrementAndGet();
+		numUploadedAnnotations.addAndGet(count);
+		send(exchange, 200, "application/json", "{\"success\": \"file annotations.json uploaded\"}");
+	}
+
+	private int parseItemIndex(String itemName) {
+		if (!itemName.startsWith("item"))
+			return -1;
+		try {
+			int index = Integer.parseInt(itemName.substring(4));
+			return index < numItems ? index : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private String itemJson(int index) {
+		String itemUrl = getItemUrl(index);
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"@context\": ").append(JSON_LD_CONTEXT);
+		sb.append(", \"alveo:catalog_url\": ").append(jsonString(itemUrl));
+		sb.append(", \"alveo:metadata\": {");
+		sb.append("\"dcterms:title\": ").append(jsonString("Synthetic item " + index));
+		sb.append(", \"dcterms:identifier\": ").append(jsonString("item" + index));
+		sb.append(", \"dcterms:isPartOf\": ").append(jsonString(collectionName));
+		sb.append(", \"dcterms:creator\": \"Fake Alveo server\"");
+		sb.append(", \"olac:discourse_type\": \"dialogue\"");
+		sb.append(", \"olac:recordingdate\": \"2014-04-11\"");
+		sb.append(", \"olac:language\": \"eng\"");
+		sb.append(", \"alveo:handle\": ").append(jsonString(collectionName + ":item" + index));
+		sb.append("}, \"alveo:primary_text_url\": ").append(jsonString(itemUrl + "/primary_text.json"));
+		sb.append(", \"alveo:annotations_url\": ").append(jsonString(itemUrl + "/annotations.json"));
+		sb.append(", \"alveo:documents\": [");
+		for (int i = 0; i < numDocuments; i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append("{\"alveo:url\": ").append(jsonString(String.format("%s/document/doc%d.txt", itemUrl, i)));
+			sb.append(", \"dcterms:type\": ").append(jsonString(i == 0 ? "Text" : "Original"));
+			sb.append(", \"dcterms:identifier\": ").append(jsonString(String.format("doc%d.txt", i)));
+			sb.append("}");
+		}
+		sb.append("]}");
+		return sb.toString();
+	}
+
+	private String itemText(int index) {
+		Random itemRandom = new Random(seed * 31 + index);
+		StringBuilder sb = new StringBuilder(textLength + 16);
+		while (sb.length() < textLength) {
+			sb.append(WORDS[itemRandom.nextInt(WORDS.length)]);
+			sb.append(itemRandom.nextInt(12) == 0 ? ".\n" : " ");
+		}
+		return sb.toString();
+	}
+
+	private String annotationsJson(int index) {
+		int length = itemText(index).length();
+		List<String> typeUris = getTypeUris();
+		Random itemRandom = new Random(seed * 37 + index);
+		String itemUrl = getItemUrl(index);
+		StringBuilder sb = new StringBuilder(numAnnotations * 160);
+		sb.append("{\"@context\": ").append(JSON_LD_CONTEXT);
+		sb.append(", \"commonProperties\": {\"alveo:annotates\": ").append(jsonString(itemUrl + "/document/doc0.txt"));
+		sb.append("}, \"alveo:annotations\": [");
+		for (int i = 0; i < numAnnotations; i++) {
+			int start = itemRandom.nextInt(length);
+			int end = Math.min(length, start + 1 + itemRandom.nextInt(40));
+			if (i > 0)
+				sb.append(", ");
+			sb.append("{\"@id\": ").append(jsonString(String.format("%s/annotation/%d", itemUrl, i)));
+			sb.append(", \"@type\": \"dada:TextAnnotation\"");
+			sb.append(", \"type\": ").append(jsonString(typeUris.get(itemRandom.nextInt(typeUris.size()))));
+			sb.append(", \"label\": ").append(jsonString(itemRandom.nextInt(4) == 0 ? "" : "label" + itemRandom.nextInt(50)));
+			sb.append(", \"start\": ").append(start);
+			sb.append(", \"end\": ").append(end).append("}");
+		}
+		sb.append("]}");
+		return sb.toString();
+	}
+
+	private void sendNotFound(HttpExchange exchange) throws IOException {
+		send(exchange, 404, "application/json", "{\"error\": \"not-found\"}");
+	}
+
+	private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+		send(exchange, status, contentType, body.getBytes(UTF8));
+	}
+
+	private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+		if (body.length > 0) {
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		}
+	}
+
+	private static String stripExtension(String name) {
+		int dot = name.lastIndexOf('.');
+		return dot < 0 ? name : name.substring(0, dot);
+	}
+
+	private static String jsonString(String s) {
+		StringBuilder sb = new StringBuilder(s.length() + 2);
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\')
+				sb.append('\\').append(c);
+			else if (c == '\n')
+				sb.append("\\n");
+			else if (c < 0x20)
+				sb.append(String.format("\\u%04x", (int) c));
+			else
+				sb.append(c);
+		}
+		return sb.append('"').toString();
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int n;
+		while ((n = in.read(buf)) > 0)
+			out.write(buf, 0, n);
+		return out.toByteArray();
+	}
+
+	private static void consume(InputStream in) throws IOException {
+		byte[] buf = new byte[8192];
+		while (in.read(buf) > 0)
+			;
+	}
+
+	protected static class CLParams {
+		@Parameter(names = { "-p", "--port" }, description = "The port to listen on")
+		private int port = 3000;
+
+		@Parameter(names = { "--help", "-h", "-?" }, help = true, description = "Display this help text")
+		private boolean help;
+
+		@Parameter(names = { "-f", "--fixture-dir" }, description = "A directory of files to serve in preference " +
+				"to generated responses, laid out according to the request paths")
+		private String fixtureDir = null;
+
+		@Parameter(names = { "-k", "--api-key" }, description = "If provided, the only API key which is accepted")
+		private String apiKey = null;
+
+		@Parameter(names = { "-c", "--collection" }, description = "The collection holding the synthetic items")
+		private String collectionName = "cooee";
+
+		@Parameter(names = { "-n", "--num-items" }, description = "The number of synthetic items")
+		private int numItems = 100;
+
+		@Parameter(names = { "--num-annotations" }, description = "The number of annotations on each item")
+		private int numAnnotations = 200;
+
+		@Parameter(names = { "--num-documents" }, description = "The number of source documents for each item")
+		private int numDocuments = 1;
+
+		@Parameter(names = { "--text-length" }, description = "The length of the text of each item in characters")
+		private int textLength = 4000;
+
+		@Parameter(names = { "--num-types" }, description = "The number of distinct annotation types")
+		private int numTypes = 20;
+
+		@Parameter(names = { "--seed" }, description = "The seed for generating items and injecting " +
+				"latency and failures")
+		private long seed = 0;
+
+		@Parameter(names = { "--min-latency" }, description = "The minimum delay before each response, in milliseconds")
+		private int minLatency = 0;
+
+		@Parameter(names = { "--max-latency" }, description = "The maximum delay before each response, in milliseconds")
+		private int maxLatency = 0;
+
+		@Parameter(names = { "--error-rate" }, description = "The fraction of requests which fail")
+		private double errorRate = 0.0;
+	}
+
+	public static void main(String[] args) throws Exception {
+		CLParams params = new CLParams();
+		JCommander jcom = new JCommander(params, args);
+		jcom.setProgramName(FakeAlveoServer.class.getName());
+		if (params.help) {
+			System.err.println("Run a local stand-in for an Alveo server, serving synthetic items " +
+					"and fixture files, for offline testing and benchmarking");
+			jcom.usage();
+			return;
+		}
+		final FakeAlveoServer server = new FakeAlveoServer(params.port);
+		if (params.fixtureDir != null)
+			server.setFixtureDir(new File(params.fixtureDir));
+		server.setApiKey(params.apiKey);
+		server.setCollectionName(params.collectionName);
+		server.setNumItems(params.numItems);
+		server.setItemSize(params.numAnnotations, params.numDocuments, params.textLength);
+		server.setNumTypes(params.numTypes);
+		server.setSeed(params.seed);
+		server.setLatency(params.minLatency, params.maxLatency);
+		server.setErrorRate(params.errorRate);
+		server.start();
+		System.err.println("Serving at " + server.getBaseUrl() + "; press Ctrl-C to stop");
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				System.err.printf("Handled %d requests (%d injected errors); received %d annotations in %d uploads%n",
+						server.getNumRequests(), server.getNumInjectedErrors(),
+						server.getNumUploadedAnnotations(), server.getNumUploadRequests());
+				server.stop();
+			}
+		});
+		// the server threads are daemons, so keep the main thread alive
+		while (true)
+			TimeUnit.DAYS.sleep(1);
+	}
+}
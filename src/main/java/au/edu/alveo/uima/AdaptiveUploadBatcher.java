@@ -0,0 +1,143 @@
+package au.edu.alveo.uima;
+
+import au.edu.alveo.client.TextRestAnnotation;
+import au.edu.alveo.client.entity.EntityNotFoundException;
+import au.edu.alveo.client.entity.InvalidAnnotationException;
+import au.edu.alveo.client.entity.Item;
+import au.edu.alveo.client.entity.UploadIntegrityException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Uploads annotations to an item in chunks whose size adapts to how quickly the server responds.
+ *
+ * Large uploads have to be split up since the server times out on large requests, but the
+ * best size depends on the server and its load. The chunk size starts at a configured value,
+ * grows by half whenever a full chunk is stored in less than the target time, and is halved
+ * whenever a chunk times out or takes longer than the target time (within the configured limits).
+ *
+ * Failures which look transient (those caused by an I/O error) are retried after an
+ * exponentially increasing, randomly jittered delay. Other failures are not retried.
+ * A chunk which timed out may still have been stored by the server, in which case
+ * retrying it stores duplicate annotations, so timeouts are only retried if the
+ * batcher was asked to; otherwise the chunk size is reduced for later uploads and
+ * the failure is passed on.
+ *
+ * The chunk size is shared between all uploads made through an instance, so instances
+ * may be used from several threads at once.
+ */
+class AdaptiveUploadBatcher {
+	private static final Logger LOG = LoggerFactory.getLogger(AdaptiveUploadBatcher.class);
+	private static final long MAX_RETRY_DELAY_MILLIS = 60000;
+
+	private final int minChunkSize;
+	private final int maxChunkSize;
+	private final long targetMillis;
+	private final int maxRetries;
+	private final long retryDelayMillis;
+	private final boolean retryTimeouts;
+	private final Random random = new Random();
+	private int chunkSize;
+
+	/**
+	 * @param initialChunkSize The number of annotations in the first chunk uploaded
+	 * @param minChunkSize The smallest chunk size the batcher will shrink to
+	 * @param maxChunkSize The largest chunk size the batcher will grow to
+	 * @param targetMillis The time an upload of a single chunk should take
+	 * @param maxRetries The number of times a failed chunk is retried before giving up
+	 * @param retryDelayMillis The delay before the first retry, which doubles for each subsequent attempt
+	 * @param retryTimeouts Whether to retry chunks which timed out, at the risk of storing them twice
+	 */
+	AdaptiveUploadBatcher(int initialChunkSize, int minChunkSize, int maxChunkSize, long targetMillis,
+			int maxRetries, long retryDelayMillis, boolean retryTimeouts) {
+		this.minChunkSize = Math.max(minChunkSize, 1);
+		this.maxChunkSize = Math.max(maxChunkSize, this.minChunkSize);
+		this.chunkSize = Math.min(Math.max(initialChunkSize, this.minChunkSize), this.maxChunkSize);
+		this.targetMillis = targetMillis;
+		this.maxRetries = maxRetries;
+		this.retryDelayMillis = retryDelayMillis;
+		this.retryTimeouts = retryTimeouts;
+	}
+
+	/** Store all of the supplied annotations on the item, in as many requests as necessary */
+	public void upload(Item item, List<TextRestAnnotation> anns) throws EntityNotFoundException,
+			UploadIntegrityException, InvalidAnnotationException, InterruptedException {
+		int pos = 0;
+		int attempt = 0;
+		while (pos < anns.size()) {
+			int size = getChunkSize();
+			List<TextRestAnnotation> chunk = anns.subList(pos, Math.min(pos + size, anns.size()));
+			long start = System.currentTimeMillis();
+			try {
+				item.storeNewAnnotations(chunk);
+			} catch (RuntimeException e) {
+				boolean timedOut = isTimeout(e);
+				if (timedOut)
+					shrink(size);
+				if (!isTransient(e) || (timedOut && !retryTimeouts) || attempt >= maxRetries)
+					throw e;
+				++attempt;
+				long delay = retryDelay(attempt);
+				LOG.warn("Uploading {} annotations to {} failed ({}); retrying in {}ms", new Object[] {
+						chunk.size(), item.getUri(), e.getMessage(), delay});
+				Thread.sleep(delay);
+				continue;
+			}
+			attempt = 0;
+			long elapsed = System.currentTimeMillis() - start;
+			if (elapsed > targetMillis)
+				shrink(size);
+			else if (chunk.size() == size)
+				grow(size);
+			pos += chunk.size();
+		}
+	}
+
+	public synchronized int getChunkSize() {
+		return chunkSize;
+	}
+
+	private synchronized void grow(int sizeUsed) {
+		// only react to the chunk size which was in effect when the upload started,
+		// since other threads may have already adjusted it
+		if (sizeUsed == chunkSize && chunkSize < maxChunkSize) {
+			chunkSize = Math.min(maxChunkSize, chunkSize + Math.max(chunkSize / 2, 1));
+			LOG.debug("Increased upload chunk size to {}", chunkSize);
+		}
+	}
+
+	private synchronized void shrink(int sizeUsed) {
+		if (sizeUsed == chunkSize && chunkSize > minChunkSize) {
+			chunkSize = Math.max(minChunkSize, chunkSize / 2);
+			LOG.debug("Decreased upload chunk size to {}", chunkSize);
+		}
+	}
+
+	private long retryDelay(int attempt) {
+		long base = Math.min(MAX_RETRY_DELAY_MILLIS, retryDelayMillis << Math.min(attempt - 1, 16));
+		// jitter between half and all of the exponential delay, so that several
+		// upload threads which failed together don't retry in lockstep
+		return base / 2 + (long) (random.nextDouble() * (base / 2));
+	}
+
+	private static boolean isTransient(Throwable e) {
+		for (Throwable t = e; t != null; t = t.getCause()) {
+			if (t instanceof IOException)
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean isTimeout(Throwable e) {
+		for (Throwable t = e; t != null; t = t.getCause()) {
+			if (t instanceof SocketTimeoutException)
+				return true;
+		}
+		return false;
+	}
+}
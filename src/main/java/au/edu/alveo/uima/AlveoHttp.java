@@ -0,0 +1,78 @@
+package au.edu.alveo.uima;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Direct requests to the Alveo server, for the few cases where the REST client does
+ * more than we want (such as materialising a whole item list, or a document we may never need).
+ */
+class AlveoHttp {
+	/** A hash of an API key, for recording which key was used without storing the key itself */
+	static String apiKeyHash(String apiKey) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(apiKey.getBytes(Charset.forName("UTF-8")));
+			StringBuilder hex = new StringBuilder(digest.length * 2);
+			for (byte b : digest)
+				hex.append(String.format("%02x", b & 0xff));
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // every JVM has SHA-256
+		}
+	}
+
+	/** Append a path to the base URL of the server, which may or may not end in a slash */
+	static URL resolve(String baseUrl, String path) throws IOException {
+		return new URL(baseUrl + (baseUrl.endsWith("/") ? "" : "/") + path);
+	}
+
+	/** Send a GET request, returning the connection once the response has been checked for success
+	 *
+	 * @throws IOException if the request fails or the server responds with an error status
+	 */
+	static HttpURLConnection get(URL url, String apiKey, String accept) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+		conn.setRequestProperty("X-API-KEY", apiKey);
+		if (accept != null)
+			conn.setRequestProperty("Accept", accept);
+		int status = conn.getResponseCode();
+		if (status != HttpURLConnection.HTTP_OK) {
+			conn.disconnect();
+			throw new IOException("Request to " + url + " failed: HTTP status " + status + " " +
+					conn.getResponseMessage());
+		}
+		return conn;
+	}
+
+	/** Send a GET request and copy the response body to the output stream */
+	static void download(URL url, String apiKey, String accept, OutputStream out) throws IOException {
+		HttpURLConnection conn = get(url, apiKey, accept);
+		try {
+			InputStream in = conn.getInputStream();
+			try {
+				byte[] buf = new byte[65536];
+				int len;
+				while ((len = in.read(buf)) >= 0)
+					out.write(buf, 0, len);
+			} finally {
+				in.close();
+			}
+		} finally {
+			conn.disconnect();
+		}
+	}
+
+	/** Send a GET request and return the response body */
+	static byte[] download(URL url, String apiKey, String accept) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(65536);
+		download(url, apiKey, accept, out);
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,112 @@
+package au.edu.alveo.uima;
+
+import au.edu.alveo.client.TextRestAnnotation;
+
+/**
+ * Determines which converted annotations are not already present on an item,
+ * for {@link ItemAnnotationUploader}.
+ *
+ * Annotations are compared by a 64-bit fingerprint of (type URI, label, start, end),
+ * which are the properties which make Alveo annotations equivalent, and the fingerprints
+ * of the existing annotations are held in a primitive hash set. The chance of two
+ * distinct annotations on the same item sharing a fingerprint is negligible
+ * (around 2<sup>-64</sup> per pair).
+ *
+ * Counts of new, duplicate and filtered annotations are kept both for the current
+ * document and for all documents seen by the instance. Instances are not thread-safe.
+ */
+class AnnotationDiffer {
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final LongHashSet existing = new LongHashSet(1024);
+	private int numNew, numDuplicate, numFiltered;
+	private long totalNew, totalDuplicate, totalFiltered;
+
+	/** Forget the existing annotations of the previous document
+	 *
+	 * @param expectedExisting The approximate number of existing annotations which will be added
+	 */
+	public void startDocument(int expectedExisting) {
+		existing.clear(expectedExisting);
+		numNew = numDuplicate = numFiltered = 0;
+	}
+
+	/** Record an annotation which is already present on the item */
+	public void addExisting(TextRestAnnotation ann) {
+		existing.add(fingerprint(ann));
+	}
+
+	/** Check whether the supplied annotation is new, updating the counts accordingly */
+	public boolean isNew(TextRestAnnotation ann) {
+		if (existing.contains(fingerprint(ann))) {
+			countDuplicate();
+			return false;
+		}
+		++numNew;
+		++totalNew;
+		return true;
+	}
+
+	/** Record an annotation which was known to be a duplicate without needing to check */
+	public void countDuplicate() {
+		++numDuplicate;
+		++totalDuplicate;
+	}
+
+	/** Record an annotation which was not considered for upload (for instance because of its type) */
+	public void countFiltered() {
+		++numFiltered;
+		++totalFiltered;
+	}
+
+	public int getNumNew() {
+		return numNew;
+	}
+
+	public int getNumDuplicate() {
+		return numDuplicate;
+	}
+
+	public int getNumFiltered() {
+		return numFiltered;
+	}
+
+	public long getTotalNew() {
+		return totalNew;
+	}
+
+	public long getTotalDuplicate() {
+		return totalDuplicate;
+	}
+
+	public long getTotalFiltered() {
+		return totalFiltered;
+	}
+
+	static long fingerprint(TextRestAnnotation ann) {
+		return fingerprint(ann.getType(), ann.getLabel(), ann.getStartOffset(), ann.getEndOffset());
+	}
+
+	static long fingerprint(String typeUri, String label, int start, int end) {
+		long h = FNV_OFFSET;
+		h = hashString(h, typeUri);
+		h = hashString(h, label);
+		h = (h ^ (((long) start << 32) | (end & 0xffffffffL))) * FNV_PRIME;
+		// murmur3 finalizer, to spread the FNV bits over the whole word
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private static long hashString(long h, String s) {
+		if (s == null)
+			return (h ^ 0xff) * FNV_PRIME;
+		for (int i = 0; i < s.length(); i++)
+			h = (h ^ s.charAt(i)) * FNV_PRIME;
+		return (h ^ s.length()) * FNV_PRIME; // separates the type from the label
+	}
+}
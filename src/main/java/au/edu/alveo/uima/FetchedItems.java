@@ -0,0 +1,77 @@
+package au.edu.alveo.uima;
+
+import au.edu.alveo.client.entity.Item;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Hands the items which {@link ItemListCollectionReader} fetched from the server on to an
+ * {@link ItemAnnotationUploader} in the same JVM, so that the uploader can store new
+ * annotations on an item without fetching it a second time.
+ *
+ * A CAS can only carry the URI of its item, so the item is looked up by URI here. There is one
+ * instance per server and API key, since an item fetched with one key can't be used to upload
+ * with another. Readers only hold on to their items once an uploader has asked for them with
+ * {@link #forUploader}, and only the most recently fetched items are kept, so the uploader
+ * must fall back to fetching the item itself when it isn't found (for example when the reader
+ * took it from its item cache, or runs in another process). Instances are safe for concurrent use.
+ */
+class FetchedItems {
+	/** How many items are kept for each server, which should cover the CASes in flight between the reader and uploader */
+	static final int MAX_ITEMS = 1024;
+
+	private static final Map<String, FetchedItems> instances = new HashMap<String, FetchedItems>();
+
+	private final Map<String, Item> items = new LinkedHashMap<String, Item>(16, 0.75f, false) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Item> eldest) {
+			return size() > MAX_ITEMS;
+		}
+	};
+	private volatile boolean wanted = false;
+
+	private FetchedItems() {
+	}
+
+	private static FetchedItems get(String serverBaseUrl, String apiKey) {
+		String id = serverBaseUrl + " " + AlveoHttp.apiKeyHash(apiKey);
+		synchronized (instances) {
+			FetchedItems fetched = instances.get(id);
+			if (fetched == null) {
+				fetched = new FetchedItems();
+				instances.put(id, fetched);
+			}
+			return fetched;
+		}
+	}
+
+	/** Get the instance a reader should offer the items it fetches to */
+	static FetchedItems forReader(String serverBaseUrl, String apiKey) {
+		return get(serverBaseUrl, apiKey);
+	}
+
+	/** Get the instance an uploader should take items from, so that readers start keeping them */
+	static FetchedItems forUploader(String serverBaseUrl, String apiKey) {
+		FetchedItems fetched = get(serverBaseUrl, apiKey);
+		fetched.wanted = true;
+		return fetched;
+	}
+
+	/** Keep the item for an uploader, if there is one */
+	void offer(Item item) {
+		if (!wanted)
+			return;
+		synchronized (items) {
+			items.put(item.getUri(), item);
+		}
+	}
+
+	/** Remove and return the item with the supplied URI, or <code>null</code> if it isn't held */
+	Item take(String itemUri) {
+		synchronized (items) {
+			return items.remove(itemUri);
+		}
+	}
+}
@@ -1,9 +1,10 @@
 package au.edu.alveo.uima;
 
-import com.google.common.collect.Lists;
+import au.edu.alveo.uima.conversions.AnnotationConversions;
 import au.edu.alveo.uima.conversions.FallingBackUIMAAlveoConverter;
 import au.edu.alveo.uima.conversions.UIMAToAlveoAnnConverter;
 import au.edu.alveo.uima.types.AlveoItemSource;
+import au.edu.alveo.uima.utils.BoundedExecutor;
 import au.edu.alveo.client.RestClient;
 import au.edu.alveo.client.TextRestAnnotation;
 import au.edu.alveo.client.entity.EntityNotFoundException;
@@ -20,20 +21,26 @@ import org.apache.uima.cas.FSIterator;
 import org.apache.uima.cas.Feature;
 import org.apache.uima.cas.Type;
 import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.impl.LowLevelCAS;
 import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.fit.component.CasConsumer_ImplBase;
 import org.apache.uima.fit.descriptor.ConfigurationParameter;
 import org.apache.uima.fit.descriptor.OperationalProperties;
 import org.apache.uima.fit.util.JCasUtil;
+import org.apache.uima.jcas.cas.FSArray;
 import org.apache.uima.resource.ResourceInitializationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 /**
  * A UIMA component which uploads annotations to the HCS vLab server.
@@ -52,6 +59,17 @@ public class ItemAnnotationUploader extends CasConsumer_ImplBase {
 	public static final String PARAM_ANNTYPE_FEATURE_NAMES = "annTypeFeatureNames";
 	public static final String PARAM_UPLOADABLE_UIMA_TYPE_NAMES = "uploadableUimaTypeNames";
 	public static final String PARAM_ANNOTATION_CONVERTERS = "annotationConverters";
+	public static final String PARAM_UPLOAD_THREADS = "uploadThreads";
+	public static final String PARAM_UPLOAD_QUEUE_SIZE = "uploadQueueSize";
+	public static final String PARAM_COMPARE_WITH_READER_ANNOTATIONS = "compareWithReaderAnnotations";
+	public static final String PARAM_UPLOAD_CHUNK_SIZE = "uploadChunkSize";
+	public static final String PARAM_UPLOAD_MIN_CHUNK_SIZE = "uploadMinChunkSize";
+	public static final String PARAM_UPLOAD_MAX_CHUNK_SIZE = "uploadMaxChunkSize";
+	public static final String PARAM_UPLOAD_TARGET_MILLIS = "uploadTargetMillis";
+	public static final String PARAM_UPLOAD_MAX_RETRIES = "uploadMaxRetries";
+	public static final String PARAM_UPLOAD_RETRY_DELAY_MILLIS = "uploadRetryDelayMillis";
+	public static final String PARAM_UPLOAD_RETRY_TIMEOUTS = "uploadRetryTimeouts";
+	public static final String PARAM_CHECKPOINT_FILE = "checkpointFile";
 
 	/** The default feature name which, if found, is used to set the type of an annotation */
 	public static final String DEFAULT_ANNTYPE_FEATURE = "au.edu.alveo.uima.types.ItemAnnotation:annType";
@@ -96,23 +114,96 @@ public class ItemAnnotationUploader extends CasConsumer_ImplBase {
 					"All classes named here must implement au.edu.alveo.uima.conversions.UIMAToAlveoAnnConverter")
 	private String[] annotationConverterClasses = new String[] {};
 
+	@ConfigurationParameter(name = PARAM_UPLOAD_THREADS, mandatory = false,
+			description = "Number of background threads used to upload annotations to the server. " +
+					"If zero (the default), annotations are uploaded synchronously while processing each CAS; " +
+					"otherwise they are queued for upload and any failures are reported when " +
+					"processing of the collection is complete")
+	private int uploadThreads = 0;
+
+	@ConfigurationParameter(name = PARAM_UPLOAD_QUEUE_SIZE, mandatory = false,
+			description = "Maximum number of documents whose annotations are waiting for an upload thread, " +
+					"when uploading in the background; processing blocks when this is reached")
+	private int uploadQueueSize = 8;
+
+	@ConfigurationParameter(name = PARAM_COMPARE_WITH_READER_ANNOTATIONS, mandatory = false,
+			description = "If true, determine which annotations are new by comparing with the annotations " +
+					"stored in the CAS by au.edu.alveo.uima.ItemListCollectionReader, instead of retrieving " +
+					"the item from the server again. This is only correct if the annotations on the server " +
+					"have not changed since the item was read; if the reader did not store any annotations, " +
+					"the item is retrieved from the server as usual")
+	private boolean compareWithReaderAnnotations = false;
+
+	@ConfigurationParameter(name = PARAM_UPLOAD_CHUNK_SIZE, mandatory = false,
+			description = "Initial number of annotations sent to the server in a single request; " +
+					"this is adjusted according to how quickly the server responds")
+	private int uploadChunkSize = 200;
+
+	@ConfigurationParameter(name = PARAM_UPLOAD_MIN_CHUNK_SIZE, mandatory = false,
+			description = "Smallest number of annotations which will be sent in a single request")
+	private int uploadMinChunkSize = 20;
+
+	@ConfigurationParameter(name = PARAM_UPLOAD_MAX_CHUNK_SIZE, mandatory = false,
+			description = "Largest number of annotations which will be sent in a single request")
+	private int uploadMaxChunkSize = 2000;
+
+	@ConfigurationParameter(name = PARAM_UPLOAD_TARGET_MILLIS, mandatory = false,
+			description = "Target duration in milliseconds of a single upload request; the number of annotations " +
+					"per request grows while requests are faster than this and shrinks when they are slower")
+	private int uploadTargetMillis = 10000;
+
+	@ConfigurationParameter(name = PARAM_UPLOAD_MAX_RETRIES, mandatory = false,
+			description = "Number of times an upload request which failed with an I/O error is retried " +
+					"before processing fails (timeouts are only retried if " + PARAM_UPLOAD_RETRY_TIMEOUTS + " is set)")
+	private int uploadMaxRetries = 5;
+
+	@ConfigurationParameter(name = PARAM_UPLOAD_RETRY_DELAY_MILLIS, mandatory = false,
+			description = "Delay in milliseconds before the first retry of a failed upload request; " +
+					"this is doubled (with some random variation) for each further retry")
+	private int uploadRetryDelayMillis = 1000;
+
+	@ConfigurationParameter(name = PARAM_UPLOAD_RETRY_TIMEOUTS, mandatory = false,
+			description = "Whether to retry upload requests which timed out; the server may have stored the " +
+					"annotations anyway, in which case retrying them stores duplicates")
+	private boolean uploadRetryTimeouts = false;
+
+	@ConfigurationParameter(name = PARAM_CHECKPOINT_FILE, mandatory = false,
+			description = "If set, a file to which the URI of each item is appended once all of its new " +
+					"annotations have been uploaded, which can be given to the collection reader to " +
+					"skip those items when the pipeline is restarted")
+	private File checkpointFile = null;
+
 	private RestClient apiClient;
+	private FetchedItems fetchedItems;
 	private ItemCASAdapter casAdapter;
 	private List<Feature> annTypeFeatures = new ArrayList<Feature>();
 	private List<Feature> labelFeatures = new ArrayList<Feature>();
 	private TypeSystem currentTypeSystem = null;
 	private Set<Type> uploadableUimaTypes = null;
 	private UIMAToAlveoAnnConverter converter = null;
+	private BoundedExecutor uploadExecutor = null;
+	private AdaptiveUploadBatcher batcher = null;
+	private final AnnotationDiffer differ = new AnnotationDiffer();
+	private final LongHashSet readerAnnRefs = new LongHashSet(1024);
+	private ItemCheckpoint checkpoint = null;
 
 	@Override
 	public void initialize(UimaContext context) throws ResourceInitializationException {
 		super.initialize(context);
 		try {
 			apiClient = new RestClient(baseUrl.toString(), apiKey);
-			List<UIMAToAlveoAnnConverter> componentConverters = new ArrayList<UIMAToAlveoAnnConverter>(annotationConverterClasses.length + 1);
-			for (String accName : annotationConverterClasses)
-				componentConverters.add(getConverterInstance(accName));
-			converter = FallingBackUIMAAlveoConverter.withDefault(componentConverters, annTypeFeatureNames, labelFeatureNames);
+			fetchedItems = FetchedItems.forUploader(baseUrl.toString(), apiKey);
+			converter = createConverter();
+			// the adapter gets a converter of its own, since it gives it each type system it sees
+			casAdapter = new ItemCASAdapter(baseUrl.toString(), false, true, createConverter());
+			batcher = new AdaptiveUploadBatcher(uploadChunkSize, uploadMinChunkSize, uploadMaxChunkSize,
+					uploadTargetMillis, uploadMaxRetries, uploadRetryDelayMillis, uploadRetryTimeouts);
+			if (uploadThreads > 0)
+				uploadExecutor = new BoundedExecutor("alveo-upload", uploadThreads, uploadQueueSize);
+			if (checkpointFile != null)
+				checkpoint = ItemCheckpoint.open(checkpointFile);
+		} catch (IOException e) {
+			throw new ResourceInitializationException(e);
 		} catch (InvalidServerAddressException e) {
 			throw new ResourceInitializationException(e);
 		} catch (ClassNotFoundException e) {
@@ -124,6 +215,14 @@ public class ItemAnnotationUploader extends CasConsumer_ImplBase {
 		}
 	}
 
+	private UIMAToAlveoAnnConverter createConverter()
+			throws ClassNotFoundException, IllegalAccessException, InstantiationException {
+		List<UIMAToAlveoAnnConverter> componentConverters = new ArrayList<UIMAToAlveoAnnConverter>(annotationConverterClasses.length + 1);
+		for (String accName : annotationConverterClasses)
+			componentConverters.add(getConverterInstance(accName));
+		return FallingBackUIMAAlveoConverter.withDefault(componentConverters, annTypeFeatureNames, labelFeatureNames);
+	}
+
 	private UIMAToAlveoAnnConverter getConverterInstance(String className)
 			throws ClassNotFoundException, IllegalAccessException, InstantiationException {
 		Class<?> convClass = Class.forName(className);
@@ -134,7 +233,6 @@ public class ItemAnnotationUploader extends CasConsumer_ImplBase {
 		if (ts.equals(currentTypeSystem))
 			return;
 		currentTypeSystem = ts;
-		casAdapter = new ItemCASAdapter(baseUrl.toString(), false, true, converter);
 		converter.setTypeSystem(currentTypeSystem);
 		try {
 			initTypeWhitelist();
@@ -163,70 +261,194 @@ public class ItemAnnotationUploader extends CasConsumer_ImplBase {
 
 	@Override
 	public void process(CAS aCAS) throws AnalysisEngineProcessException {
-		// create a new CAS and store a copy of the old item in it
+		// find the annotations which the item had on the server (either by reading
+		// the item again, or from the annotations stored by the reader),
 		// then iterate through the supplied CAS, keeping any annotations which
 		// don't correspond to anything in the original item
 		// then bulk-upload these annotations.
 		initForTypeSystem(aCAS.getTypeSystem());
-		Item apiItem;
-		CAS casOfOrig;
+		AlveoItemSource itemSource;
 		try {
-			apiItem = getOriginalFromAPI(aCAS);
-			casOfOrig = getCopyOfOriginalCAS(aCAS, apiItem);
+			itemSource = JCasUtil.selectSingle(aCAS.getJCas(), AlveoItemSource.class);
 		} catch (CASException e) {
 			throw new AnalysisEngineProcessException(e);
-		} catch (UnauthorizedAPIKeyException e) {
-			throw new AnalysisEngineProcessException(e);
 		}
+		FSArray readerAnns = compareWithReaderAnnotations ? itemSource.getAnnotations() : null;
+		if (compareWithReaderAnnotations && readerAnns == null)
+			LOG.warn("No annotations from the reader found for {}; re-reading item from server",
+					itemSource.getSourceUri());
+
+		Item apiItem = null;
+		Collection<AnnotationFS> origAnns;
+		CAS casOfOrig;
+		if (readerAnns != null) {
+			origAnns = readerAnnotations(aCAS, itemSource, readerAnns);
+		} else {
+			try {
+				apiItem = getOriginalFromAPI(itemSource);
+				casOfOrig = getCopyOfOriginalCAS(aCAS, apiItem);
+			} catch (CASException e) {
+				throw new AnalysisEngineProcessException(e);
+			} catch (UnauthorizedAPIKeyException e) {
+				throw new AnalysisEngineProcessException(e);
+			}
+			origAnns = new ArrayList<AnnotationFS>();
+			FSIterator<AnnotationFS> oldAnnIter = casOfOrig.getAnnotationIndex().iterator(true);
+			while (oldAnnIter.hasNext())
+				origAnns.add(oldAnnIter.next());
+		}
+
+		differ.startDocument(origAnns.size());
+		List<AnnotationFS> candidates = uploadCandidates(aCAS, readerAnns != null);
 
 		List<TextRestAnnotation> uploadable = new ArrayList<TextRestAnnotation>();
+		try {
+			for (TextRestAnnotation origAnn : AnnotationConversions.convertAll(converter, origAnns))
+				differ.addExisting(origAnn);
+			for (TextRestAnnotation asAlveoAnn : AnnotationConversions.convertAll(converter, candidates)) {
+				if (differ.isNew(asAlveoAnn))
+					uploadable.add(asAlveoAnn);
+			}
+		} catch (UIMAToAlveoAnnConverter.NotInitializedException e) {
+			throw new AnalysisEngineProcessException(e);
+		} catch (UIMAToAlveoAnnConverter.InvalidAnnotationTypeException e) {
+			throw new AnalysisEngineProcessException(e);
+		}
+		LOG.debug("{}: {} new, {} existing and {} filtered annotations", new Object[] {
+				itemSource.getSourceUri(), differ.getNumNew(), differ.getNumDuplicate(), differ.getNumFiltered()});
 
-		Set<TextRestAnnotation> oldAnns = new HashSet<TextRestAnnotation>();
-		FSIterator<AnnotationFS> oldAnnIter = casOfOrig.getAnnotationIndex().iterator(true);
-		while (oldAnnIter.hasNext()) {
-			AnnotationFS oldAnn = oldAnnIter.next();
+		final String itemUri = itemSource.getSourceUri();
+		if (uploadable.isEmpty()) {
+			fetchedItems.take(itemUri); // no longer needed
+			markCompleted(itemUri);
+			return;
+		}
+		if (apiItem == null) { // only needed now that we know there is something to upload
 			try {
-				oldAnns.add(converter.convertToAlveo(oldAnn));
-			} catch (UIMAToAlveoAnnConverter.NotInitializedException e) {
-				throw new AnalysisEngineProcessException(e);
-			} catch (UIMAToAlveoAnnConverter.InvalidAnnotationTypeException e) {
+				apiItem = getOriginalFromAPI(itemSource);
+			} catch (UnauthorizedAPIKeyException e) {
 				throw new AnalysisEngineProcessException(e);
 			}
 		}
+		if (uploadExecutor == null) {
+			storeInChunks(apiItem, uploadable);
+			markCompleted(itemUri);
+			return;
+		}
+		final Item itemToUpdate = apiItem;
+		final List<TextRestAnnotation> toUpload = uploadable;
+		try {
+			uploadExecutor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws AnalysisEngineProcessException {
+					storeInChunks(itemToUpdate, toUpload);
+					markCompleted(itemUri);
+					return null;
+				}
+			});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AnalysisEngineProcessException(e);
+		}
+	}
+
+	/**
+	 * Get the annotations which the reader stored from the item on the server, remembering them
+	 * so that {@link #uploadCandidates(CAS, boolean)} can skip them. The other annotations created
+	 * by the reader (the item source and the document annotation) are remembered too, since
+	 * they weren't read from the server and would otherwise look like new annotations.
+	 */
+	List<AnnotationFS> readerAnnotations(CAS aCAS, AlveoItemSource itemSource, FSArray readerAnns) {
+		LowLevelCAS llCas = aCAS.getLowLevelCAS();
+		List<AnnotationFS> origAnns = new ArrayList<AnnotationFS>(readerAnns.size());
+		readerAnnRefs.clear(readerAnns.size() + 2);
+		for (int i = 0; i < readerAnns.size(); i++) {
+			AnnotationFS origAnn = (AnnotationFS) readerAnns.get(i);
+			origAnns.add(origAnn);
+			readerAnnRefs.add(llCas.ll_getFSRef(origAnn));
+		}
+		readerAnnRefs.add(llCas.ll_getFSRef(itemSource));
+		readerAnnRefs.add(llCas.ll_getFSRef(aCAS.getDocumentAnnotation()));
+		return origAnns;
+	}
 
+	/** Get the annotations of uploadable types in the CAS, skipping those created by the reader if
+	 * <code>skipReaderAnns</code> is set (in which case {@link #readerAnnotations} must have been called) */
+	List<AnnotationFS> uploadCandidates(CAS aCAS, boolean skipReaderAnns) {
+		LowLevelCAS llCas = aCAS.getLowLevelCAS();
+		List<AnnotationFS> candidates = new ArrayList<AnnotationFS>();
 		FSIterator<AnnotationFS> annIter = aCAS.getAnnotationIndex().iterator(true);
-
 		while (annIter.hasNext()) {
 			AnnotationFS ann = annIter.next();
-			if (!isAnnTypeUploadable(ann))
+			if (!isAnnTypeUploadable(ann)) {
+				differ.countFiltered();
 				continue;
-			if (casOfOrig.getAnnotationIndex(ann.getType()).contains(ann))
-				continue; // annotation already existed in CAS - don't re-add
-			TextRestAnnotation asAlveoAnn = null;
-			try {
-				asAlveoAnn = converter.convertToAlveo(ann);
-			} catch (UIMAToAlveoAnnConverter.NotInitializedException e) {
-				throw new AnalysisEngineProcessException(e);
-			} catch (UIMAToAlveoAnnConverter.InvalidAnnotationTypeException e) {
-				throw new AnalysisEngineProcessException(e);
 			}
-			if (oldAnns.contains(asAlveoAnn)) // already existed post-conversion
+			if (skipReaderAnns && readerAnnRefs.contains(llCas.ll_getFSRef(ann))) {
+				differ.countDuplicate(); // created by the reader, so no need to convert it
 				continue;
-			uploadable.add(asAlveoAnn);
+			}
+			candidates.add(ann);
 		}
+		return candidates;
+	}
 
-
+	private void storeInChunks(Item apiItem, List<TextRestAnnotation> uploadable) throws AnalysisEngineProcessException {
 		// if we don't upload in chunks we get a socket timeout
-		for (List<TextRestAnnotation> chunk : Lists.partition(uploadable, 200)) {
-			try {
-				apiItem.storeNewAnnotations(chunk);
-			} catch (EntityNotFoundException e) {
-				throw new AnalysisEngineProcessException(e);
-			} catch (UploadIntegrityException e) {
-				throw new AnalysisEngineProcessException(e);
-			} catch (InvalidAnnotationException e) {
-				throw new AnalysisEngineProcessException(e);
-			}
+		try {
+			batcher.upload(apiItem, uploadable);
+		} catch (EntityNotFoundException e) {
+			throw new AnalysisEngineProcessException(e);
+		} catch (UploadIntegrityException e) {
+			throw new AnalysisEngineProcessException(e);
+		} catch (InvalidAnnotationException e) {
+			throw new AnalysisEngineProcessException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AnalysisEngineProcessException(e);
+		} catch (RuntimeException e) {
+			throw new AnalysisEngineProcessException(e);
+		}
+	}
+
+	@Override
+	public void collectionProcessComplete() throws AnalysisEngineProcessException {
+		super.collectionProcessComplete();
+		LOG.info("Found {} new annotations to upload; skipped {} existing and {} filtered annotations",
+				new Object[] {differ.getTotalNew(), differ.getTotalDuplicate(), differ.getTotalFiltered()});
+		if (uploadExecutor == null)
+			return;
+		List<Exception> failures;
+		try {
+			failures = uploadExecutor.awaitCompletion();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AnalysisEngineProcessException(e);
+		}
+		if (!failures.isEmpty()) {
+			LOG.error("Annotations for {} documents could not be uploaded", failures.size());
+			throw new AnalysisEngineProcessException(failures.get(0));
+		}
+	}
+
+	@Override
+	public void destroy() {
+		if (uploadExecutor != null)
+			uploadExecutor.shutdown();
+		if (checkpoint != null) {
+			checkpoint.release();
+			checkpoint = null;
+		}
+		super.destroy();
+	}
+
+	private void markCompleted(String itemUri) throws AnalysisEngineProcessException {
+		if (checkpoint == null)
+			return;
+		try {
+			checkpoint.markCompleted(itemUri);
+		} catch (IOException e) {
+			throw new AnalysisEngineProcessException(e);
 		}
 	}
 
@@ -234,10 +456,11 @@ public class ItemAnnotationUploader extends CasConsumer_ImplBase {
 		return uploadableUimaTypes == null || uploadableUimaTypes.contains(ann.getType());
 	}
 
-	private Item getOriginalFromAPI(CAS providedCas) throws UnauthorizedAPIKeyException, CASException {
-		AlveoItemSource vlis = JCasUtil.selectSingle(providedCas.getJCas(), AlveoItemSource.class);
+	/** Get the item from the reader if it fetched it in this JVM, otherwise from the server */
+	private Item getOriginalFromAPI(AlveoItemSource vlis) throws UnauthorizedAPIKeyException {
 		String itemUri = vlis.getSourceUri();
-		return apiClient.getItemByUri(itemUri);
+		Item item = fetchedItems.take(itemUri);
+		return item != null ? item : apiClient.getItemByUri(itemUri);
 	}
 
 	private CAS getCopyOfOriginalCAS(CAS updatedCAS, Item origItem) throws CASException, AnalysisEngineProcessException {
@@ -19,126 +19,303 @@ import org.apache.uima.cas.text.AnnotationFS;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * A class, primarily for internal usage, which does the work of converting
  * items (from the Alveo API) and their annotations into an appropriate CAS
+ *
+ * Instances can be shared between threads (such as several readers, or the prefetching
+ * threads of one reader), and CASes with different type systems can be stored by the
+ * same instance. The annotation converter belongs to the adapter, which gives it each
+ * type system as it is first seen, so it must not be used by anything else.
  */
 class ItemCASAdapter {
 	private static final Logger LOG = LoggerFactory.getLogger(ItemCASAdapter.class);
 
 	private final boolean includeRawDocs;
+	private final boolean lazyRawDocs;
 	private final boolean includeAnnotations;
 	private final String serverBaseUrl;
-	private Map<String, Type> urisToAnnTypes = new HashMap<String, Type>();
+	private final Object annTypeIndexLock = new Object();
+	// copied on write, so it can be read without locking
+	private volatile Map<TypeSystem, AnnTypeIndex> annTypeIndexes = Collections.emptyMap();
+	private static final int MAX_TYPE_SYSTEMS = 8;
+	// a canonical instance of each annotation type URI, since items repeat the same few
+	// URIs on every annotation
+	private final ConcurrentMap<String, String> annTypeUris = new ConcurrentHashMap<String, String>();
+	private static final int MAX_INTERNED_TYPE_URIS = 10000;
 	private final UIMAToAlveoAnnConverter uimaToAlveoAnnConverter;
+	private ExecutorService rawDocExecutor = null;
+	private String rawDocSourceId = null;
 
 
 	public ItemCASAdapter(String serverBaseUrl, boolean includeRawDocs, boolean includeAnnotations,
 			UIMAToAlveoAnnConverter uimaToAlveoAnnConverter) {
+		this(serverBaseUrl, includeRawDocs, false, includeAnnotations, uimaToAlveoAnnConverter);
+	}
+
+	/**
+	 * @param lazyRawDocs If true (and <code>includeRawDocs</code> is), the raw documents are not
+	 *                    retrieved, and their views refer to them by URL instead, for retrieval
+	 *                    with {@link RawDocumentSource} if they turn out to be needed
+	 * @param uimaToAlveoAnnConverter A converter for the adapter's own use, to map annotation types
+	 *                                to type URIs, which must not be shared with other components
+	 */
+	public ItemCASAdapter(String serverBaseUrl, boolean includeRawDocs, boolean lazyRawDocs,
+			boolean includeAnnotations, UIMAToAlveoAnnConverter uimaToAlveoAnnConverter) {
 		this.serverBaseUrl = serverBaseUrl;
 		this.includeRawDocs = includeRawDocs;
+		this.lazyRawDocs = lazyRawDocs;
 		this.includeAnnotations = includeAnnotations;
 		this.uimaToAlveoAnnConverter = uimaToAlveoAnnConverter;
 	}
 
+	/** Retrieve the raw documents of each item concurrently on the supplied executor, instead of
+	 * one after another on the thread creating the snapshot. The executor is not shut down
+	 * by this class */
+	public void setRawDocExecutor(ExecutorService rawDocExecutor) {
+		this.rawDocExecutor = rawDocExecutor;
+	}
+
+	/** Set the ID of the {@link RawDocumentSource} which views of lazily-stored documents
+	 * should be retrieved with */
+	public void setRawDocSourceId(String rawDocSourceId) {
+		this.rawDocSourceId = rawDocSourceId;
+	}
+
 	public void storeItemInCas(Item item, CAS cas) throws CASException {
+		storeItemInCas(snapshot(item), cas);
+	}
+
+	/** Store a previously-materialised item in the supplied CAS, without contacting the server */
+	public void storeItemInCas(ItemSnapshot item, CAS cas) throws CASException {
 		storeMainItem(item, cas);
 		int ctr = 1;
 		if (includeRawDocs) {
-			for (TextDocument td : item.textDocuments()) {
+			for (ItemSnapshot.Document doc : item.getDocuments()) {
 				++ctr;
+				CAS view = cas.createView(String.format("%02d: %s", ctr, doc.getType()));
+				storeSourceDoc(doc, view);
+			}
+		}
+	}
+
+	/** Retrieve everything from the server which is needed to store the item in a CAS.
+	 *
+	 * This only touches thread-safe state, so it is safe to call concurrently
+	 * from several threads
+	 */
+	public ItemSnapshot snapshot(Item item) throws CASException {
+		List<ItemSnapshot.Annotation> anns = null;
+		if (includeAnnotations) {
+			List<TextAnnotation> textAnns;
+			try {
+				textAnns = item.getTextAnnotations();
+			} catch (UnsupportedLDSchemaException e) {
+				throw new CASException(e);
+			}
+			anns = new ArrayList<ItemSnapshot.Annotation>(textAnns.size());
+			for (TextAnnotation ta : textAnns)
+				anns.add(new ItemSnapshot.Annotation(internTypeUri(ta.getType()), ta.getLabel(), ta.getStartOffset(),
+						ta.getEndOffset()));
+		}
+		List<ItemSnapshot.Document> docs = new ArrayList<ItemSnapshot.Document>();
+		if (includeRawDocs) {
+			if (rawDocExecutor != null && !lazyRawDocs)
+				return new ItemSnapshot(item.getUri(), item.primaryText(), item.getMetadata(), anns,
+						retrieveDocsConcurrently(item));
+			for (TextDocument td : item.textDocuments()) {
 				try {
-					String docType = td.getType();
-					CAS view = cas.createView(String.format("%02d: %s", ctr, docType));
-					storeSourceDoc(td, view);
+					docs.add(new ItemSnapshot.Document(td.getType(), td.getDataUrl(),
+							lazyRawDocs ? null : td.rawText()));
 				} catch (UnknownValueException e) {
 					throw new CASException(e);
 				}
 			}
 		}
+		return new ItemSnapshot(item.getUri(), item.primaryText(), item.getMetadata(), anns, docs);
+	}
+
+	private String internTypeUri(String typeUri) {
+		if (typeUri == null)
+			return null;
+		String canonical = annTypeUris.get(typeUri);
+		if (canonical != null)
+			return canonical;
+		if (annTypeUris.size() >= MAX_INTERNED_TYPE_URIS)
+			return typeUri;
+		canonical = annTypeUris.putIfAbsent(typeUri, typeUri);
+		return canonical != null ? canonical : typeUri;
 	}
 
-	private void storeAnnotations(Item item, AnnotationFS vlabItemSrc) throws CASException {
-		List<TextAnnotation> anns;
+	/** Retrieve the raw documents of the item on the executor, returning them in the original order */
+	private List<ItemSnapshot.Document> retrieveDocsConcurrently(Item item) throws CASException {
+		List<Future<ItemSnapshot.Document>> pending = new ArrayList<Future<ItemSnapshot.Document>>();
+		for (final TextDocument td : item.textDocuments()) {
+			pending.add(rawDocExecutor.submit(new Callable<ItemSnapshot.Document>() {
+				@Override
+				public ItemSnapshot.Document call() throws UnknownValueException {
+					return new ItemSnapshot.Document(td.getType(), td.getDataUrl(), td.rawText());
+				}
+			}));
+		}
+		List<ItemSnapshot.Document> docs = new ArrayList<ItemSnapshot.Document>(pending.size());
 		try {
-			anns = item.getTextAnnotations();
-		} catch (UnsupportedLDSchemaException e) {
+			for (Future<ItemSnapshot.Document> doc : pending)
+				docs.add(doc.get());
+		} catch (ExecutionException e) {
+			throw new CASException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 			throw new CASException(e);
+		} finally {
+			for (Future<ItemSnapshot.Document> doc : pending)
+				doc.cancel(true); // no effect on those which have finished
 		}
-		int ctr = 0;
+		return docs;
+	}
+
+	private void storeAnnotations(ItemSnapshot item, AnnotationFS vlabItemSrc) {
 		CAS cas = vlabItemSrc.getCAS();
-		TypeSystem ts = cas.getTypeSystem();
+		AnnTypeIndex index = getAnnTypeIndex(cas.getTypeSystem());
+		// adding annotations to the index in offset order is cheaper than in arbitrary order,
+		// and the server doesn't guarantee any order (the sort is stable, so ties keep theirs)
+		List<ItemSnapshot.Annotation> anns = new ArrayList<ItemSnapshot.Annotation>(item.getAnnotations());
+		Collections.sort(anns, OFFSET_ORDER);
 		ArrayFS fsForAnns = cas.createArrayFS(anns.size());
-		Feature annTypeFeature = ts.getFeatureByFullName("au.edu.alveo.uima.types.ItemAnnotation:annType");
-		Feature labelFeature = ts.getFeatureByFullName("au.edu.alveo.uima.types.ItemAnnotation:label");
-
-		for (TextAnnotation ta : anns) {
-			Type type = getTypeForAnnotation(ts, ta.getType());
-			AnnotationFS afs = cas.createAnnotation(type, ta.getStartOffset(), ta.getEndOffset());
-			afs.setFeatureValueFromString(annTypeFeature, ta.getType());
-			afs.setFeatureValueFromString(labelFeature, ta.getLabel());
+		int ctr = 0;
+		String lastTypeUri = null;
+		Type lastType = null;
+		for (ItemSnapshot.Annotation ta : anns) {
+			// annotations of the same type tend to come together
+			if (lastTypeUri == null || !lastTypeUri.equals(ta.getType())) {
+				lastTypeUri = ta.getType();
+				lastType = getTypeForAnnotation(index, lastTypeUri);
+			}
+			AnnotationFS afs = cas.createAnnotation(lastType, ta.getStart(), ta.getEnd());
+			afs.setStringValue(index.annTypeFeature, ta.getType());
+			afs.setStringValue(index.labelFeature, ta.getLabel());
 			cas.addFsToIndexes(afs);
 			fsForAnns.set(ctr++, afs);
 		}
-		vlabItemSrc.setFeatureValue(ts.getFeatureByFullName("au.edu.alveo.uima.types.AlveoItemSource:annotations"),
-				fsForAnns);
+		vlabItemSrc.setFeatureValue(index.annotationsFeature, fsForAnns);
 		cas.addFsToIndexes(fsForAnns);
 	}
 
-	private Type getTypeForAnnotation(TypeSystem typeSystem, String annTypeUri) {
-		if (urisToAnnTypes.size() == 0)
-			cacheAnnTypeUris(typeSystem);
-		Type type = urisToAnnTypes.get(annTypeUri);
+	/** Begin ascending, then end descending, which is the order of the annotation index */
+	private static final Comparator<ItemSnapshot.Annotation> OFFSET_ORDER = new Comparator<ItemSnapshot.Annotation>() {
+		@Override
+		public int compare(ItemSnapshot.Annotation a1, ItemSnapshot.Annotation a2) {
+			if (a1.getStart() != a2.getStart())
+				return a1.getStart() < a2.getStart() ? -1 : 1;
+			if (a1.getEnd() != a2.getEnd())
+				return a1.getEnd() > a2.getEnd() ? -1 : 1;
+			return 0;
+		}
+	};
+
+	private Type getTypeForAnnotation(AnnTypeIndex index, String annTypeUri) {
+		Type type = annTypeUri == null ? null : index.typesByUri.get(annTypeUri);
 		if (type == null) {
 			LOG.error("Unknown annotation type URI: {}", annTypeUri);
-			type = typeSystem.getType("au.edu.alveo.uima.types.UnknownItemAnnotation");
+			type = index.unknownType;
 		}
 		return type;
 	}
 
-	private void cacheAnnTypeUris(TypeSystem typeSystem)  {
-		// XXX: this assumes that all CASes have effectively the same type system.
-		// this will probably be true in practice generally, although
-		// we should maybe clear urisToAnnTypes for each new CAS just in case?
-		uimaToAlveoAnnConverter.setTypeSystem(typeSystem);
-		Iterator<Type> types = typeSystem.getTypeIterator();
-		while (types.hasNext()) {
-			Type type = types.next();
-			String typeURI = uimaToAlveoAnnConverter.getAlveoTypeUriForTypeName(type.getName());
-			urisToAnnTypes.put(typeURI, type);
+	/** Get the index for the type system, building it the first time the type system is seen.
+	 *
+	 * CASes from the same pipeline share a type system instance, so the index is normally
+	 * only built once per pipeline, and it is never modified once published, so it can be
+	 * read without locking from any thread. The converter is only used while building an
+	 * index, which is done holding the lock.
+	 */
+	private AnnTypeIndex getAnnTypeIndex(TypeSystem typeSystem) {
+		AnnTypeIndex index = annTypeIndexes.get(typeSystem);
+		if (index != null)
+			return index;
+		synchronized (annTypeIndexLock) {
+			index = annTypeIndexes.get(typeSystem);
+			if (index == null) {
+				index = new AnnTypeIndex(typeSystem, uimaToAlveoAnnConverter);
+				// a process which keeps creating type systems shouldn't hold on to all of them
+				Map<TypeSystem, AnnTypeIndex> updated = annTypeIndexes.size() < MAX_TYPE_SYSTEMS
+						? new IdentityHashMap<TypeSystem, AnnTypeIndex>(annTypeIndexes)
+						: new IdentityHashMap<TypeSystem, AnnTypeIndex>();
+				updated.put(typeSystem, index);
+				annTypeIndexes = updated;
+			}
+			return index;
 		}
 	}
 
-	private void storeSourceDoc(TextDocument td, CAS view) throws CASException {
-		view.setSofaDataString(td.rawText(), "text/plain");
+	/** The annotation types of a type system, keyed by their Alveo type URIs, along with the
+	 * other types and features needed to store annotations */
+	private static class AnnTypeIndex {
+		final Map<String, Type> typesByUri;
+		final Type unknownType;
+		final Feature annTypeFeature;
+		final Feature labelFeature;
+		final Feature annotationsFeature;
+
+		AnnTypeIndex(TypeSystem typeSystem, UIMAToAlveoAnnConverter converter) {
+			this.unknownType = typeSystem.getType("au.edu.alveo.uima.types.UnknownItemAnnotation");
+			this.annTypeFeature = typeSystem.getFeatureByFullName("au.edu.alveo.uima.types.ItemAnnotation:annType");
+			this.labelFeature = typeSystem.getFeatureByFullName("au.edu.alveo.uima.types.ItemAnnotation:label");
+			this.annotationsFeature = typeSystem.getFeatureByFullName(
+					"au.edu.alveo.uima.types.AlveoItemSource:annotations");
+			Map<String, Type> byUri = new HashMap<String, Type>();
+			converter.setTypeSystem(typeSystem);
+			Iterator<Type> types = typeSystem.getTypeIterator();
+			while (types.hasNext()) {
+				Type type = types.next();
+				byUri.put(converter.getAlveoTypeUriForTypeName(type.getName()), type);
+			}
+			this.typesByUri = Collections.unmodifiableMap(byUri);
+		}
+	}
+
+	private void storeSourceDoc(ItemSnapshot.Document doc, CAS view) throws CASException {
+		boolean lazy = doc.getRawText() == null;
+		if (lazy)
+			view.setSofaDataURI(doc.getDataUrl(), "text/plain");
+		else
+			view.setSofaDataString(doc.getRawText(), "text/plain");
 		VLabDocSource vlds = new VLabDocSource(view.getJCas());
+		if (lazy)
+			vlds.setRawDocSourceId(rawDocSourceId);
 		vlds.setServerBase(serverBaseUrl);
-		vlds.setRawTextUrl(td.getDataUrl());
-		try {
-			vlds.setDocType(td.getType());
-		} catch (UnknownValueException e) {
-			throw new CASException(e);
-		}
+		vlds.setRawTextUrl(doc.getDataUrl());
+		vlds.setDocType(doc.getType());
 		vlds.addToIndexes();
 	}
 
-	private void storeMainItem(Item item, CAS mainView) throws CASException {
-		mainView.setSofaDataString(item.primaryText(), "text/plain");
+	private void storeMainItem(ItemSnapshot item, CAS mainView) throws CASException {
+		mainView.setSofaDataString(item.getPrimaryText(), "text/plain");
 		AlveoItemSource vlis = new AlveoItemSource(mainView.getJCas());
 		vlis.setSourceUri(item.getUri());
 		vlis.setServerBase(serverBaseUrl);
 		storeMetadata(item, vlis);
-		if (includeAnnotations)
+		if (includeAnnotations && item.hasAnnotations())
 			storeAnnotations(item, vlis);
 		vlis.addToIndexes();
 	}
 
-	private void storeMetadata(Item item, AnnotationFS vlabItemSrc) throws CASException {
+	private void storeMetadata(ItemSnapshot item, AnnotationFS vlabItemSrc) throws CASException {
 		Map<String, String> orig = item.getMetadata();
 
 		ItemMetadata metadata = new ItemMetadata(vlabItemSrc.getCAS().getJCas());
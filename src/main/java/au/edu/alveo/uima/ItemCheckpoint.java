@@ -0,0 +1,125 @@
+package au.edu.alveo.uima;
+
+import au.edu.alveo.uima.utils.CompleteLineReader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A record of which items have been completely processed, so that a pipeline which is
+ * restarted after failing can skip the items it has already finished.
+ *
+ * The record is a text file of item URIs, one per line, which consumers such as
+ * {@link ItemAnnotationUploader} append to as they finish each item (flushing each time,
+ * so that the file is up to date if the process dies), and which
+ * {@link ItemListCollectionReader} reads to work out which items to skip. If a pipeline
+ * has several consumers, only the last one should be given the checkpoint file.
+ *
+ * Instances are shared between all components in the same JVM which use the same file,
+ * and are safe for concurrent use. Each component which opens a checkpoint should
+ * {@link #release()} it when it is destroyed, and the file is closed once they all have.
+ */
+public class ItemCheckpoint {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final Map<File, ItemCheckpoint> instances = new HashMap<File, ItemCheckpoint>();
+
+	private final File file;
+	private final Set<String> completed = new HashSet<String>();
+	private Writer writer = null;
+	private int numUsers = 0; // guarded by instances
+	private boolean released = false;
+
+	private ItemCheckpoint(File file) throws IOException {
+		this.file = file;
+		if (file.exists())
+			load();
+	}
+
+	/** Get the checkpoint for the supplied file, which is created if it does not exist.
+	 * The caller should {@link #release()} it when it is finished with it */
+	public static ItemCheckpoint open(File file) throws IOException {
+		File canonical = file.getCanonicalFile();
+		synchronized (instances) {
+			ItemCheckpoint checkpoint = instances.get(canonical);
+			if (checkpoint == null) {
+				checkpoint = new ItemCheckpoint(canonical);
+				instances.put(canonical, checkpoint);
+			}
+			checkpoint.numUsers++;
+			return checkpoint;
+		}
+	}
+
+	/** Indicate that a caller of {@link #open(File)} has finished with the checkpoint. When
+	 * every caller has, the file is closed, and the checkpoint can't be used further */
+	public void release() {
+		synchronized (instances) {
+			if (numUsers == 0 || --numUsers > 0)
+				return; // already released, or still in use
+			instances.remove(file);
+		}
+		synchronized (this) {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (IOException e) {
+					// every line has already been flushed
+				}
+			}
+			writer = null;
+			released = true;
+		}
+	}
+
+	private void load() throws IOException {
+		// a partly-written final line (from a process which died while writing it) is ignored,
+		// since it could be a prefix of the URI being written which matches another item
+		CompleteLineReader reader = new CompleteLineReader(new InputStreamReader(new FileInputStream(file), UTF8));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.isEmpty())
+					completed.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	public synchronized boolean isCompleted(String itemUri) {
+		return completed.contains(itemUri);
+	}
+
+	public synchronized int getNumCompleted() {
+		return completed.size();
+	}
+
+	/** Record that the item has been processed, writing it to the file immediately */
+	public synchronized void markCompleted(String itemUri) throws IOException {
+		if (released)
+			throw new IOException("The checkpoint " + file + " has been released");
+		if (!completed.add(itemUri))
+			return;
+		if (writer == null)
+			writer = openForAppend();
+		writer.write(itemUri);
+		writer.write('\n');
+		writer.flush();
+	}
+
+	private Writer openForAppend() throws IOException {
+		if (file.exists())
+			CompleteLineReader.truncatePartialLine(file); // as ignored by load()
+		return new OutputStreamWriter(new FileOutputStream(file, true), UTF8);
+	}
+}
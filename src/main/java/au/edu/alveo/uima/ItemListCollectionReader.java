@@ -6,11 +6,11 @@ package au.edu.alveo.uima;
 import au.edu.alveo.client.entity.AlveoException;
 import au.edu.alveo.uima.conversions.FallingBackUIMAAlveoConverter;
 import au.edu.alveo.uima.conversions.UIMAToAlveoAnnConverter;
+import au.edu.alveo.uima.utils.DaemonThreadFactory;
 import au.edu.alveo.client.RestClient;
 import au.edu.alveo.client.entity.EntityNotFoundException;
 import au.edu.alveo.client.entity.InvalidServerAddressException;
 import au.edu.alveo.client.entity.Item;
-import au.edu.alveo.client.entity.ItemList;
 import au.edu.alveo.client.entity.UnauthorizedAPIKeyException;
 import org.apache.uima.UimaContext;
 import org.apache.uima.cas.CAS;
@@ -31,6 +31,7 @@ import org.openrdf.OpenRDFException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
@@ -39,6 +40,10 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.apache.uima.fit.factory.ConfigurationParameterFactory.ConfigurationData;
 
@@ -61,8 +66,26 @@ public class ItemListCollectionReader extends CasCollectionReader_ImplBase {
 	public static final String PARAM_ALVEO_ITEM_LIST_ID = "itemListId";
 	public static final String PARAM_ALVEO_API_KEY = "alveoApiKey";
 	public static final String PARAM_INCLUDE_RAW_DOCS = "includeRawDocs";
+	public static final String PARAM_LAZY_RAW_DOCS = "lazyRawDocs";
+	public static final String PARAM_RAW_DOC_CACHE_SIZE = "rawDocCacheSize";
+	public static final String PARAM_RAW_DOC_THREADS = "rawDocThreads";
 	public static final String PARAM_INCLUDE_ANNOTATIONS = "includeAnnotations";
 	public static final String PARAM_ANNOTATION_CONVERTERS = "annotationConverters";
+	public static final String PARAM_PREFETCH_THREADS = "prefetchThreads";
+	public static final String PARAM_PREFETCH_DEPTH = "prefetchDepth";
+	public static final String PARAM_ITEM_CACHE_DIR = "itemCacheDir";
+	public static final String PARAM_ITEM_CACHE_TTL = "itemCacheTtlSeconds";
+	public static final String PARAM_TYPE_DISCOVERY_THREADS = "typeDiscoveryThreads";
+	public static final String PARAM_TYPE_DISCOVERY_TIMEOUT = "typeDiscoveryTimeoutSeconds";
+	public static final String PARAM_TYPE_SYSTEM_SNAPSHOT = "typeSystemSnapshot";
+	public static final String PARAM_TYPE_SYSTEM_SNAPSHOT_MAX_AGE = "typeSystemSnapshotMaxAgeSeconds";
+	public static final String PARAM_SHARD_INDEX = "shardIndex";
+	public static final String PARAM_SHARD_COUNT = "shardCount";
+	public static final String PARAM_SHARD_STRATEGY = "shardStrategy";
+	public static final String PARAM_CHECKPOINT_FILE = "checkpointFile";
+
+	public static final String SHARD_STRATEGY_HASH = "hash";
+	public static final String SHARD_STRATEGY_RANGE = "range";
 
 	@ConfigurationParameter(name = PARAM_ALVEO_ITEM_LIST_ID, mandatory = true, description = "Item ID which should be retrieved and converted into a "
 			+ "set of UIMA CAS documents")
@@ -79,6 +102,23 @@ public class ItemListCollectionReader extends CasCollectionReader_ImplBase {
 
 	@ConfigurationParameter(name = PARAM_INCLUDE_RAW_DOCS, mandatory = false, description = "Include raw document sources as separate SofAs")
 	private boolean includeRawDocs = false;
+
+	@ConfigurationParameter(name = PARAM_LAZY_RAW_DOCS, mandatory = false,
+			description = "When including raw documents, only store the URL of each document in its SofA " +
+					"instead of retrieving it; components which need the text can retrieve it with " +
+					"au.edu.alveo.uima.RawDocumentSource.getRawText()")
+	private boolean lazyRawDocs = false;
+
+	@ConfigurationParameter(name = PARAM_RAW_DOC_CACHE_SIZE, mandatory = false,
+			description = "Number of lazily-retrieved raw documents which are kept in memory, so that " +
+					"several components reading the same document only retrieve it once")
+	private int rawDocCacheSize = 16;
+
+	@ConfigurationParameter(name = PARAM_RAW_DOC_THREADS, mandatory = false,
+			description = "Number of background threads used to retrieve the raw documents of each item " +
+					"concurrently, shared between all items being retrieved; if zero (the default), an " +
+					"item's documents are retrieved one after another")
+	private int rawDocThreads = 0;
 	
 	@ConfigurationParameter(name = PARAM_INCLUDE_ANNOTATIONS, mandatory = false, description = "Include textual annotations when they are present")
 	private boolean includeAnnotations = true;
@@ -90,13 +130,87 @@ public class ItemListCollectionReader extends CasCollectionReader_ImplBase {
 					"named here must implement au.edu.alveo.uima.conversions.UIMAToAlveoAnnConverter")
 	private String[] annotationConverterClasses = new String[] {};
 
+	@ConfigurationParameter(name = PARAM_PREFETCH_THREADS, mandatory = false,
+			description = "Number of background threads used to retrieve upcoming items (including their " +
+					"text, metadata and annotations) from the server ahead of when they are needed. " +
+					"If zero (the default), each item is retrieved when it is requested")
+	private int prefetchThreads = 0;
+
+	@ConfigurationParameter(name = PARAM_PREFETCH_DEPTH, mandatory = false,
+			description = "Maximum number of items which are retrieved ahead of the item currently " +
+					"being returned, when prefetching is enabled (increased to the number of " +
+					"prefetch threads if smaller)")
+	private int prefetchDepth = 16;
+
+	@ConfigurationParameter(name = PARAM_ITEM_CACHE_DIR, mandatory = false,
+			description = "If set, a local directory where retrieved items (text, metadata, annotations and " +
+					"raw documents) are cached, keyed by item URI, so that later reads of the same items " +
+					"do not need to download them again")
+	private File itemCacheDir = null;
+
+	@ConfigurationParameter(name = PARAM_ITEM_CACHE_TTL, mandatory = false,
+			description = "Age in seconds after which cached items are considered stale and are " +
+					"downloaded again; if zero (the default), cached items never expire")
+	private int itemCacheTtlSeconds = 0;
+
+	@ConfigurationParameter(name = PARAM_TYPE_DISCOVERY_THREADS, mandatory = false,
+			description = "Number of collections which are queried at once for their annotation types " +
+					"when creating the type system in createDescription() (this is not used " +
+					"after the reader has been created)")
+	private int typeDiscoveryThreads = 1;
+
+	@ConfigurationParameter(name = PARAM_TYPE_DISCOVERY_TIMEOUT, mandatory = false,
+			description = "Maximum time in seconds to wait for the collections to be queried for their " +
+					"annotation types when querying them in parallel; if zero or less, there is no limit " +
+					"(not used after the reader has been created)")
+	private int typeDiscoveryTimeoutSeconds = 300;
 
-	private ItemList itemList;
-	private Iterator<? extends Item> itemsIter;
+	@ConfigurationParameter(name = PARAM_TYPE_SYSTEM_SNAPSHOT, mandatory = false,
+			description = "If set, a file where the annotation types found on the server are saved when " +
+					"creating the type system in createDescription(), and which is read instead of querying " +
+					"the server while it is still up to date (not used after the reader has been created)")
+	private String typeSystemSnapshot = null;
+
+	@ConfigurationParameter(name = PARAM_TYPE_SYSTEM_SNAPSHOT_MAX_AGE, mandatory = false,
+			description = "Age in seconds after which the type system snapshot is refreshed from the server; " +
+					"if zero, the snapshot is used regardless of age")
+	private int typeSystemSnapshotMaxAgeSeconds = 7 * 24 * 60 * 60;
+
+	@ConfigurationParameter(name = PARAM_SHARD_INDEX, mandatory = false,
+			description = "The index (from zero) of the shard of the item list which this reader should read, " +
+					"when the item list is split between several independent readers")
+	private int shardIndex = 0;
+
+	@ConfigurationParameter(name = PARAM_SHARD_COUNT, mandatory = false,
+			description = "The number of shards the item list is split into; each reader, given a different " +
+					"shard index, reads a disjoint subset of the items. If 1 (the default), all items are read")
+	private int shardCount = 1;
+
+	@ConfigurationParameter(name = PARAM_SHARD_STRATEGY, mandatory = false,
+			description = "How items are assigned to shards: '" + SHARD_STRATEGY_HASH + "' (the default) " +
+					"assigns each item by a hash of its URI, so the assignment does not depend on the order or " +
+					"contents of the rest of the item list, while '" + SHARD_STRATEGY_RANGE + "' splits the " +
+					"item list into contiguous ranges of (almost) equal size")
+	private String shardStrategy = SHARD_STRATEGY_HASH;
+
+	@ConfigurationParameter(name = PARAM_CHECKPOINT_FILE, mandatory = false,
+			description = "If set, a file listing the URIs of items which have already been completely " +
+					"processed (written by a consumer given the same file), which are skipped, so that a " +
+					"pipeline which failed part way through can be resumed")
+	private File checkpointFile = null;
+
+	private RestClient client;
+	private FetchedItems fetchedItems;
+	private ItemListPager itemListPager;
+	private ItemCheckpoint checkpoint;
+	private Iterator<String> itemsIter;
 	private int itemsFetched;
 	private int totalItems;
 	private ItemCASAdapter itemCASAdapter;
 	private UIMAToAlveoAnnConverter converter;
+	private OrderedPrefetcher<String, ItemSnapshot> prefetcher;
+	private ItemSnapshotCache itemCache;
+	private ExecutorService rawDocExecutor;
 
 
 	/** Create a collection reader description corresponding to the provided configuration data.
@@ -132,6 +246,8 @@ public class ItemListCollectionReader extends CasCollectionReader_ImplBase {
 			throws ResourceInitializationException {
 		ConfigurationData confDataParsed = ConfigurationParameterFactory.createConfigurationData(confData);
 		String vlabUrl = null, vlabApiKey = null;
+		int discoveryThreads = 1, discoveryTimeout = 300, snapshotMaxAge = 7 * 24 * 60 * 60;
+		File snapshotFile = null;
 		// since we don't yet have a reader, we need to semi-manually parse the params
 		for (int i = 0; i < confDataParsed.configurationParameters.length; i++) {
 			String paramName = confDataParsed.configurationParameters[i].getName();
@@ -140,13 +256,26 @@ public class ItemListCollectionReader extends CasCollectionReader_ImplBase {
 				vlabApiKey = (String) value;
 			else if (paramName.equals(PARAM_ALVEO_BASE_URL))
 				vlabUrl = (String) value;
+			else if (paramName.equals(PARAM_TYPE_DISCOVERY_THREADS))
+				discoveryThreads = Integer.parseInt(value.toString());
+			else if (paramName.equals(PARAM_TYPE_DISCOVERY_TIMEOUT))
+				discoveryTimeout = Integer.parseInt(value.toString());
+			else if (paramName.equals(PARAM_TYPE_SYSTEM_SNAPSHOT) && value != null)
+				snapshotFile = new File(value.toString());
+			else if (paramName.equals(PARAM_TYPE_SYSTEM_SNAPSHOT_MAX_AGE))
+				snapshotMaxAge = Integer.parseInt(value.toString());
 		}
 		if (vlabApiKey == null || vlabUrl == null)
 			throw new ResourceInitializationException(ResourceInitializationException.CONFIG_SETTING_ABSENT,
 					new Object[] {PARAM_ALVEO_API_KEY + ", " + PARAM_ALVEO_BASE_URL + ", " + PARAM_ALVEO_ITEM_LIST_ID});
 		TypeSystemDescription tsd;
 		try {
-			tsd = ItemListCollectionReader.getTypeSystemDescription(vlabUrl, vlabApiKey, externalTypeSystem);
+			if (snapshotFile != null)
+				tsd = ItemListCollectionReader.getTypeSystemDescription(vlabUrl, vlabApiKey, externalTypeSystem,
+						discoveryThreads, discoveryTimeout, snapshotFile, snapshotMaxAge);
+			else
+				tsd = ItemListCollectionReader.getTypeSystemDescription(vlabUrl, vlabApiKey, externalTypeSystem,
+						discoveryThreads, discoveryTimeout);
 		} catch (Exception e) {
 			throw new ResourceInitializationException(e);
 		}
@@ -158,10 +287,42 @@ public class ItemListCollectionReader extends CasCollectionReader_ImplBase {
 			TypeSystemDescription extTypeSystem)
 			throws UnauthorizedAPIKeyException, EntityNotFoundException,
 			InvalidServerAddressException, ResourceInitializationException, URISyntaxException, OpenRDFException {
+		return getTypeSystemDescription(vlabUrl, vlabApiKey, extTypeSystem, 1, 0);
+	}
+
+	/** As for {@link #getTypeSystemDescription(String, String, TypeSystemDescription)}, but querying
+	 * up to <code>discoveryThreads</code> collections for their types at once */
+	protected static TypeSystemDescription getTypeSystemDescription(String vlabUrl, String vlabApiKey,
+			TypeSystemDescription extTypeSystem, int discoveryThreads, int discoveryTimeoutSeconds)
+			throws UnauthorizedAPIKeyException, EntityNotFoundException,
+			InvalidServerAddressException, ResourceInitializationException, URISyntaxException, OpenRDFException {
 		RestClient client = new RestClient(vlabUrl, vlabApiKey);
 		TypeSystemAutoAugmenter tsag = new TypeSystemAutoAugmenter(client, extTypeSystem);
-		for (String corpusName : getCorpusNames())
-			tsag.addCorpus(corpusName);
+		tsag.addCorpora(getCorpusNames(), discoveryThreads, discoveryTimeoutSeconds);
+		return tsag.getTypeSystemDescription();
+	}
+
+	/** As for {@link #getTypeSystemDescription(String, String, TypeSystemDescription, int, int)}, but
+	 * reading the annotation types from a snapshot file if it is up to date and was written with
+	 * the same API key, and querying the server for any collections missing from it (including
+	 * those whose query failed last time) and saving the results to the snapshot file
+	 */
+	protected static TypeSystemDescription getTypeSystemDescription(String vlabUrl, String vlabApiKey,
+			TypeSystemDescription extTypeSystem, int discoveryThreads, int discoveryTimeoutSeconds,
+			File snapshotFile, int snapshotMaxAgeSeconds)
+			throws UnauthorizedAPIKeyException, EntityNotFoundException,
+			InvalidServerAddressException, ResourceInitializationException, URISyntaxException, OpenRDFException {
+		TypeSystemAutoAugmenter tsag = new TypeSystemAutoAugmenter(null, extTypeSystem);
+		if (tsag.loadSnapshot(snapshotFile, vlabUrl, vlabApiKey, getCorpusNames(), snapshotMaxAgeSeconds))
+			return tsag.getTypeSystemDescription();
+		// query the collections which weren't in the snapshot
+		tsag.setRestClient(new RestClient(vlabUrl, vlabApiKey));
+		tsag.addCorpora(getCorpusNames(), discoveryThreads, discoveryTimeoutSeconds);
+		try {
+			tsag.saveSnapshot(snapshotFile, vlabUrl, vlabApiKey);
+		} catch (IOException e) {
+			LOG.warn("Could not save type system snapshot {}: {}", snapshotFile, e.getMessage());
+		}
 		return tsag.getTypeSystemDescription();
 	}
 
@@ -205,6 +366,7 @@ public class ItemListCollectionReader extends CasCollectionReader_ImplBase {
 			for (String accName : annotationConverterClasses)
 				componentConverters.add(getConverterInstance(accName));
 			converter = FallingBackUIMAAlveoConverter.withDefault(componentConverters);
+			checkShardParams();
 			fetchItemList();
 		} catch (AlveoException e) {
 			throw new ResourceInitializationException(e);
@@ -214,28 +376,149 @@ public class ItemListCollectionReader extends CasCollectionReader_ImplBase {
 			throw new ResourceInitializationException(e);
 		} catch (IllegalAccessException e) {
 			throw new ResourceInitializationException(e);
+		} catch (IOException e) {
+			throw new ResourceInitializationException(e);
+		} catch (IllegalStateException e) {
+			throw new ResourceInitializationException(e); // the item list could not be read
 		}
 	}
 
 
+	private void checkShardParams() throws ResourceInitializationException {
+		if (shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount)
+			throw new ResourceInitializationException(new IllegalArgumentException(String.format(
+					"Invalid shard %d of %d; the shard index must be between 0 and the shard count - 1",
+					shardIndex, shardCount)));
+		if (!SHARD_STRATEGY_HASH.equals(shardStrategy) && !SHARD_STRATEGY_RANGE.equals(shardStrategy))
+			throw new ResourceInitializationException(new IllegalArgumentException(
+					"Unknown shard strategy: " + shardStrategy));
+	}
+
 	private UIMAToAlveoAnnConverter getConverterInstance(String className)
 			throws ClassNotFoundException, IllegalAccessException, InstantiationException {
 		Class<?> convClass = Class.forName(className);
 		return (UIMAToAlveoAnnConverter) convClass.newInstance();
 	}
 
-	private void fetchItemList() throws AlveoException {
-		RestClient client = new RestClient(baseUrl.toString(), apiKey);
-		try {
-			itemList = client.getItemList(itemListId);
-		} catch (Exception e) {
-			throw new RuntimeException(e);
+	/** Retrieve the item URIs in the list, leaving the items themselves to be retrieved as they are read */
+	private void fetchItemList() throws AlveoException, IOException {
+		client = new RestClient(baseUrl.toString(), apiKey);
+		fetchedItems = FetchedItems.forReader(baseUrl.toString(), apiKey);
+		itemListPager = ItemListPager.fetch(baseUrl, apiKey, itemListId);
+		if (checkpointFile != null)
+			checkpoint = ItemCheckpoint.open(checkpointFile);
+		// shard ranges are taken from the entries actually in the list, which are what we iterate over
+		int numItems = itemListPager.getNumEntries();
+		if (numItems != itemListPager.getNumItems())
+			LOG.warn("Item list {} has {} items, although the server says it has {}", new Object[] {
+					itemListId, numItems, itemListPager.getNumItems()});
+		int numCompleted = 0;
+		totalItems = 0;
+		// count the items we will read up front (which is quick, since we only need the URIs)
+		// so that the progress is accurate
+		Iterator<String> uris = itemListPager.itemUris();
+		for (int i = 0; uris.hasNext(); i++) {
+			String uri = uris.next();
+			if (!isInShard(i, uri, numItems))
+				continue;
+			if (checkpoint != null && checkpoint.isCompleted(uri))
+				numCompleted++;
+			else
+				totalItems++;
 		}
-		itemsIter = itemList.getCatalogItems().listIterator();
+		itemsIter = selectedItemUris(numItems);
 		itemsFetched = 0;
-		totalItems = itemList.numItems();
-		itemCASAdapter = new ItemCASAdapter(baseUrl.toString(), includeRawDocs, includeAnnotations,
+		if (shardCount > 1)
+			LOG.info("Reading {} of {} items in shard {} of {}", new Object[] {
+					totalItems + numCompleted, numItems, shardIndex, shardCount});
+		if (numCompleted > 0)
+			LOG.info("Skipping {} items which were completed according to {}", numCompleted, checkpointFile);
+		itemCASAdapter = new ItemCASAdapter(baseUrl.toString(), includeRawDocs, lazyRawDocs, includeAnnotations,
 				converter);
+		if (includeRawDocs && !lazyRawDocs && rawDocThreads > 0) {
+			rawDocExecutor = Executors.newFixedThreadPool(rawDocThreads, new DaemonThreadFactory("alveo-raw-docs"));
+			itemCASAdapter.setRawDocExecutor(rawDocExecutor);
+		}
+		if (includeRawDocs && lazyRawDocs) {
+			RawDocumentSource rawDocSource = RawDocumentSource.register(baseUrl.toString(), apiKey, rawDocCacheSize);
+			itemCASAdapter.setRawDocSourceId(rawDocSource.getId());
+		}
+		if (itemCacheDir != null)
+			itemCache = new ItemSnapshotCache(itemCacheDir, itemCacheTtlSeconds, includeAnnotations, includeRawDocs,
+					lazyRawDocs);
+		if (prefetchThreads > 0) {
+			LOG.info("Prefetching up to {} items using {} threads", prefetchDepth, prefetchThreads);
+			prefetcher = new OrderedPrefetcher<String, ItemSnapshot>(itemsIter,
+					new OrderedPrefetcher.Loader<String, ItemSnapshot>() {
+						@Override
+						public ItemSnapshot load(String itemUri) throws CASException, UnauthorizedAPIKeyException {
+							return loadItem(itemUri);
+						}
+					}, prefetchThreads, prefetchDepth);
+		}
+	}
+
+	/** Whether the item at the supplied (zero-based) position in the item list belongs to the configured shard */
+	private boolean isInShard(int index, String uri, int numItems) {
+		if (shardCount <= 1)
+			return true;
+		if (SHARD_STRATEGY_RANGE.equals(shardStrategy)) {
+			long start = (long) numItems * shardIndex / shardCount;
+			long end = (long) numItems * (shardIndex + 1) / shardCount;
+			return index >= start && index < end;
+		}
+		return shardForUri(uri, shardCount) == shardIndex;
+	}
+
+	/** Iterate lazily over the URIs of the items in the configured shard which haven't been completed, in
+	 * item list order */
+	private Iterator<String> selectedItemUris(final int numItems) throws IOException {
+		final Iterator<String> uris = itemListPager.itemUris();
+		return new Iterator<String>() {
+			private int index = 0;
+			private String next = null;
+
+			@Override
+			public boolean hasNext() {
+				while (next == null && uris.hasNext()) {
+					String uri = uris.next();
+					if (isInShard(index++, uri, numItems) && (checkpoint == null || !checkpoint.isCompleted(uri)))
+						next = uri;
+				}
+				return next != null;
+			}
+
+			@Override
+			public String next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				String uri = next;
+				next = null;
+				return uri;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/** The shard which an item is assigned to by the hash strategy.
+	 *
+	 * This only depends on the item URI, and <code>String.hashCode()</code> is fully
+	 * specified, so all readers agree on the assignment regardless of JVM
+	 */
+	static int shardForUri(String uri, int shardCount) {
+		int h = uri.hashCode();
+		// murmur3 finalizer, since the low bits of String.hashCode() are poorly distributed
+		// for URIs which only differ in their final characters
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return (h & Integer.MAX_VALUE) % shardCount;
 	}
 
 	/*
@@ -248,13 +531,57 @@ public class ItemListCollectionReader extends CasCollectionReader_ImplBase {
 	public void getNext(CAS cas) throws IOException, CollectionException {
 		++itemsFetched;
 		try {
-			itemCASAdapter.storeItemInCas(itemsIter.next(), cas);
+			itemCASAdapter.storeItemInCas(nextItem(), cas);
 		} catch (CASException e) {
 			throw new CollectionException(e);
 		}
 	}
 
+	private ItemSnapshot nextItem() throws CASException, CollectionException {
+		if (prefetcher == null) {
+			try {
+				return loadItem(itemsIter.next());
+			} catch (UnauthorizedAPIKeyException e) {
+				throw new CollectionException(e);
+			} catch (IllegalStateException e) {
+				throw new CollectionException(e); // the item list could not be read
+			}
+		}
+		try {
+			return prefetcher.next();
+		} catch (ExecutionException e) {
+			throw new CollectionException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CollectionException(e);
+		} catch (IllegalStateException e) {
+			throw new CollectionException(e); // the item list could not be read
+		}
+	}
+
+
 
+	/** Get the contents of the item from the cache if possible, otherwise from the server.
+	 *
+	 * This may be called concurrently from the prefetching threads
+	 */
+	private ItemSnapshot loadItem(String itemUri) throws CASException, UnauthorizedAPIKeyException {
+		if (itemCache == null)
+			return itemCASAdapter.snapshot(fetchItem(itemUri));
+		ItemSnapshot snapshot = itemCache.get(itemUri);
+		if (snapshot == null) {
+			snapshot = itemCASAdapter.snapshot(fetchItem(itemUri));
+			itemCache.put(snapshot);
+		}
+		return snapshot;
+	}
+
+	/** Fetch the item from the server, offering it to any uploader so that it needn't fetch it again */
+	private Item fetchItem(String itemUri) throws UnauthorizedAPIKeyException {
+		Item item = client.getItemByUri(itemUri);
+		fetchedItems.offer(item);
+		return item;
+	}
 
 	/*
 	 * (non-Javadoc)
@@ -262,7 +589,13 @@ public class ItemListCollectionReader extends CasCollectionReader_ImplBase {
 	 * @see org.apache.uima.collection.base_cpm.BaseCollectionReader#hasNext()
 	 */
 	public boolean hasNext() throws IOException, CollectionException {
-		return itemsIter.hasNext();
+		try {
+			if (prefetcher != null)
+				return prefetcher.hasNext();
+			return itemsIter.hasNext();
+		} catch (IllegalStateException e) {
+			throw new CollectionException(e); // the item list could not be read
+		}
 	}
 
 	/*
@@ -275,4 +608,24 @@ public class ItemListCollectionReader extends CasCollectionReader_ImplBase {
 		return new Progress[] { new ProgressImpl(itemsFetched, totalItems, Progress.ENTITIES) };
 	}
 
+	@Override
+	public void close() throws IOException {
+		if (prefetcher != null) {
+			prefetcher.close();
+			prefetcher = null;
+		}
+		if (itemListPager != null) {
+			itemListPager.close();
+			itemListPager = null;
+		}
+		if (rawDocExecutor != null) {
+			rawDocExecutor.shutdownNow();
+			rawDocExecutor = null;
+		}
+		if (checkpoint != null) {
+			checkpoint.release();
+			checkpoint = null;
+		}
+	}
+
 }
@@ -0,0 +1,357 @@
+package au.edu.alveo.uima;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The item URIs of an Alveo item list, which are read a page at a time as they are needed,
+ * rather than all being converted into items when the list is retrieved.
+ *
+ * The Alveo API returns the whole list in one response, so this saves the response to a
+ * temporary file (the connection is closed straight away, rather than being held open for
+ * as long as the items take to process), and then parses the URIs from the file in pages
+ * of {@link #PAGE_SIZE}, so the memory used doesn't depend on the length of the list. The
+ * items themselves are only retrieved when they are to be read, by whoever is iterating
+ * over the URIs.
+ *
+ * The file is deleted on {@link #close()}.
+ */
+class ItemListPager {
+	static final int PAGE_SIZE = 1000;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File listFile;
+	private String name = null;
+	private int numItems = -1;
+	private int numEntries = 0;
+
+	private ItemListPager(File listFile) throws IOException {
+		this.listFile = listFile;
+		readHeader();
+	}
+
+	/** Retrieve the item list with the supplied ID from the server */
+	static ItemListPager fetch(URL baseUrl, String apiKey, String itemListId) throws IOException {
+		URL listUrl = AlveoHttp.resolve(baseUrl.toString(), "item_lists/" + itemListId + ".json");
+		File listFile = File.createTempFile("alveo-item-list-", ".json");
+		try {
+			OutputStream out = new FileOutputStream(listFile);
+			try {
+				AlveoHttp.download(listUrl, apiKey, "application/json", out);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			listFile.delete();
+			throw e;
+		}
+		return fromFile(listFile);
+	}
+
+	/** Read an item list which has already been saved to a file, which is deleted on {@link #close()}
+	 * (or straight away if it is malformed) */
+	static ItemListPager fromFile(File listFile) throws IOException {
+		try {
+			return new ItemListPager(listFile);
+		} catch (IOException e) {
+			listFile.delete();
+			throw e;
+		}
+	}
+
+	/** The name of the item list, or <code>null</code> if the server didn't supply it */
+	String getName() {
+		return name;
+	}
+
+	/** The number of items in the list according to the server, or the number of entries if it didn't say */
+	int getNumItems() {
+		return numItems;
+	}
+
+	/** The number of item URIs actually in the list, which is what {@link #itemUris()} returns */
+	int getNumEntries() {
+		return numEntries;
+	}
+
+	/** Iterate over the item URIs in list order, starting from the beginning of the list each time.
+	 *
+	 * The iterator throws <code>IllegalStateException</code>, caused by an <code>IOException</code>,
+	 * if the rest of the list can't be read
+	 */
+	Iterator<String> itemUris() throws IOException {
+		return new UriIterator();
+	}
+
+	void close() {
+		listFile.delete();
+	}
+
+	/** Read the name and size, counting the items if the server didn't supply the count */
+	private void readHeader() throws IOException {
+		JsonScanner scanner = new JsonScanner(listFile);
+		try {
+			scanner.expect('{');
+			if (scanner.peek() != '}') {
+				do {
+					String key = scanner.readString();
+					scanner.expect(':');
+					if (key.equals("name") && scanner.peek() == '"') {
+						name = scanner.readString();
+					} else if (key.equals("num_items") && scanner.peek() != '"') {
+						numItems = scanner.readCount();
+					} else if (key.equals("items")) {
+						scanner.expect('[');
+						if (scanner.peek() != ']') {
+							do {
+								scanner.readString();
+								numEntries++;
+							} while (scanner.nextInList());
+						}
+						scanner.expect(']');
+					} else {
+						scanner.skipValue();
+					}
+				} while (scanner.nextInList());
+			}
+			if (numItems < 0)
+				numItems = numEntries;
+		} finally {
+			scanner.close();
+		}
+	}
+
+	private class UriIterator implements Iterator<String> {
+		private final JsonScanner scanner;
+		private final List<String> page = new ArrayList<String>(PAGE_SIZE);
+		private int pos = 0;
+		private boolean inItems = false;
+		private boolean finished = false;
+
+		UriIterator() throws IOException {
+			scanner = new JsonScanner(listFile);
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (pos < page.size())
+				return true;
+			if (finished)
+				return false;
+			try {
+				readPage();
+			} catch (IOException e) {
+				throw new IllegalStateException("Failed to read item list from " + listFile, e);
+			}
+			return pos < page.size();
+		}
+
+		@Override
+		public String next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			return page.get(pos++);
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		private void readPage() throws IOException {
+			page.clear();
+			pos = 0;
+			if (!inItems && !findItems()) {
+				finish();
+				return;
+			}
+			while (page.size() < PAGE_SIZE) {
+				if (scanner.peek() == ']') {
+					finish();
+					return;
+				}
+				page.add(scanner.readString());
+				if (!scanner.nextInList()) {
+					finish();
+					return;
+				}
+			}
+		}
+
+		/** Move to the first item in the list, returning false if there aren't any */
+		private boolean findItems() throws IOException {
+			scanner.expect('{');
+			if (scanner.peek() == '}')
+				return false;
+			do {
+				String key = scanner.readString();
+				scanner.expect(':');
+				if (key.equals("items")) {
+					scanner.expect('[');
+					inItems = true;
+					return true;
+				}
+				scanner.skipValue();
+			} while (scanner.nextInList());
+			return false;
+		}
+
+		private void finish() throws IOException {
+			finished = true;
+			scanner.close();
+		}
+	}
+
+	/** Just enough of a JSON tokenizer to pick out the parts of an item list we need */
+	private static class JsonScanner {
+		private final Reader reader;
+		private int peeked = -2;
+
+		JsonScanner(File file) throws IOException {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8), 65536);
+		}
+
+		void close() throws IOException {
+			reader.close();
+		}
+
+		/** The next non-whitespace character, without consuming it */
+		int peek() throws IOException {
+			if (peeked == -2)
+				peeked = reader.read();
+			while (peeked == ' ' || peeked == '\t' || peeked == '\n' || peeked == '\r')
+				peeked = reader.read();
+			if (peeked < 0)
+				throw new IOException("Unexpected end of item list");
+			return peeked;
+		}
+
+		private int read() throws IOException {
+			int c = peek();
+			peeked = -2;
+			return c;
+		}
+
+		void expect(char expected) throws IOException {
+			int c = read();
+			if (c != expected)
+				throw new IOException("Malformed item list: expected '" + expected + "' but found '" + (char) c + "'");
+		}
+
+		/** Consume a comma if there is one, returning whether there was */
+		boolean nextInList() throws IOException {
+			if (peek() != ',')
+				return false;
+			read();
+			return true;
+		}
+
+		String readString() throws IOException {
+			expect('"');
+			StringBuilder sb = new StringBuilder();
+			while (true) {
+				int c = reader.read();
+				if (c < 0)
+					throw new IOException("Unexpected end of item list");
+				if (c == '"')
+					return sb.toString();
+				if (c != '\\') {
+					sb.append((char) c);
+					continue;
+				}
+				c = reader.read();
+				switch (c) {
+					case 'b': sb.append('\b'); break;
+					case 'f': sb.append('\f'); break;
+					case 'n': sb.append('\n'); break;
+					case 'r': sb.append('\r'); break;
+					case 't': sb.append('\t'); break;
+					case 'u':
+						sb.append(readHexChar());
+						break;
+					default:
+						if (c < 0)
+							throw new IOException("Unexpected end of item list");
+						sb.append((char) c);
+				}
+			}
+		}
+
+		/** Read the four hex digits of a unicode escape in a string */
+		private char readHexChar() throws IOException {
+			int value = 0;
+			for (int i = 0; i < 4; i++) {
+				int c = reader.read();
+				if (c < 0)
+					throw new IOException("Unexpected end of item list");
+				int digit = c < 128 ? Character.digit(c, 16) : -1;
+				if (digit < 0)
+					throw new IOException("Malformed item list: invalid hex digit '" + (char) c + "' in escape");
+				value = value * 16 + digit;
+			}
+			return (char) value;
+		}
+
+		/** Read a non-negative integer */
+		int readCount() throws IOException {
+			String literal = readLiteral();
+			try {
+				long count = Long.parseLong(literal);
+				if (count >= 0 && count <= Integer.MAX_VALUE)
+					return (int) count;
+			} catch (NumberFormatException e) {
+				// reported below
+			}
+			throw new IOException("Malformed item list: invalid count '" + literal + "'");
+		}
+
+		/** Read a number, <code>true</code>, <code>false</code> or <code>null</code> */
+		String readLiteral() throws IOException {
+			StringBuilder sb = new StringBuilder();
+			sb.append((char) read());
+			while (true) {
+				reader.mark(1);
+				int c = reader.read();
+				if (c < 0 || c == ',' || c == '}' || c == ']' || Character.isWhitespace(c)) {
+					reader.reset();
+					return sb.toString();
+				}
+				sb.append((char) c);
+			}
+		}
+
+		void skipValue() throws IOException {
+			int c = peek();
+			if (c == '"') {
+				readString();
+			} else if (c == '{' || c == '[') {
+				char close = c == '{' ? '}' : ']';
+				read();
+				if (peek() != close) {
+					do {
+						if (c == '{') {
+							readString();
+							expect(':');
+						}
+						skipValue();
+					} while (nextInList());
+				}
+				expect(close);
+			} else {
+				readLiteral();
+			}
+		}
+	}
+}
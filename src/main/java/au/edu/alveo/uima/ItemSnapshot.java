@@ -0,0 +1,119 @@
+package au.edu.alveo.uima;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A fully-materialised copy of an Alveo item, holding everything which {@link ItemCASAdapter}
+ * needs to populate a CAS, so that no further requests to the server are needed once it
+ * has been created.
+ *
+ * Instances are immutable, so they can safely be created on one thread and handed to
+ * another for storing in a CAS.
+ */
+class ItemSnapshot {
+	private final String uri;
+	private final String primaryText;
+	private final Map<String, String> metadata;
+	private final List<Annotation> annotations;
+	private final List<Document> documents;
+
+	/**
+	 * @param uri The URI of the item on the server
+	 * @param primaryText The primary text of the item
+	 * @param metadata The item metadata, keyed by property URI
+	 * @param annotations The textual annotations of the item, or <code>null</code> if they were not retrieved
+	 * @param documents The source documents of the item (empty if they were not retrieved)
+	 */
+	ItemSnapshot(String uri, String primaryText, Map<String, String> metadata,
+			List<Annotation> annotations, List<Document> documents) {
+		this.uri = uri;
+		this.primaryText = primaryText;
+		this.metadata = Collections.unmodifiableMap(metadata);
+		this.annotations = annotations == null ? null : Collections.unmodifiableList(annotations);
+		this.documents = Collections.unmodifiableList(documents);
+	}
+
+	public String getUri() {
+		return uri;
+	}
+
+	public String getPrimaryText() {
+		return primaryText;
+	}
+
+	public Map<String, String> getMetadata() {
+		return metadata;
+	}
+
+	/** Whether the annotations of the item were retrieved when the snapshot was created */
+	public boolean hasAnnotations() {
+		return annotations != null;
+	}
+
+	public List<Annotation> getAnnotations() {
+		return annotations;
+	}
+
+	public List<Document> getDocuments() {
+		return documents;
+	}
+
+	/** A textual annotation on the item, as read from the server */
+	static class Annotation {
+		private final String type;
+		private final String label;
+		private final int start;
+		private final int end;
+
+		Annotation(String type, String label, int start, int end) {
+			this.type = type;
+			this.label = label;
+			this.start = start;
+			this.end = end;
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		public String getLabel() {
+			return label;
+		}
+
+		public int getStart() {
+			return start;
+		}
+
+		public int getEnd() {
+			return end;
+		}
+	}
+
+	/** One of the source documents associated with the item; the raw text is <code>null</code> if
+	 * it is to be retrieved lazily */
+	static class Document {
+		private final String type;
+		private final String dataUrl;
+		private final String rawText;
+
+		Document(String type, String dataUrl, String rawText) {
+			this.type = type;
+			this.dataUrl = dataUrl;
+			this.rawText = rawText;
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		public String getDataUrl() {
+			return dataUrl;
+		}
+
+		public String getRawText() {
+			return rawText;
+		}
+	}
+}
@@ -0,0 +1,218 @@
+package au.edu.alveo.uima;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A persistent on-disk store of {@link ItemSnapshot}s, keyed by item URI, so that
+ * repeated reads of the same item list do not need to download every item again.
+ *
+ * Each item is stored in its own gzipped binary file, named after a hash of the item URI.
+ * Entries are written to a temporary file and then renamed into place, so concurrent
+ * readers (including other processes sharing the directory) never see a partial entry.
+ * Entries older than the configured time-to-live are ignored and replaced on the next
+ * write; entries which do not contain everything the reader has been configured
+ * to include (annotations, raw documents, or just the references to raw documents which
+ * are retrieved lazily) are likewise treated as missing.
+ */
+class ItemSnapshotCache {
+	private static final Logger LOG = LoggerFactory.getLogger(ItemSnapshotCache.class);
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int MAGIC = 0xA1BE0CAC;
+	private static final int FORMAT_VERSION = 1;
+	private static final int FLAG_ANNOTATIONS = 1;
+	private static final int FLAG_RAW_DOCS = 2;
+	private static final int FLAG_DOC_REFS = 4;
+
+	private final File cacheDir;
+	private final long ttlMillis;
+	private final int requiredFlags;
+
+	/**
+	 * @param cacheDir The directory where entries are stored; created if it does not exist
+	 * @param ttlSeconds The age in seconds after which entries are considered stale, or zero if they never expire
+	 * @param includeAnnotations Whether entries must contain the item annotations
+	 * @param includeRawDocs Whether entries must contain the item documents
+	 * @param lazyRawDocs Whether the raw text of the item documents is retrieved lazily, so entries only need
+	 *                    to contain the document URLs
+	 */
+	ItemSnapshotCache(File cacheDir, long ttlSeconds, boolean includeAnnotations, boolean includeRawDocs,
+			boolean lazyRawDocs) throws IOException {
+		if (!cacheDir.isDirectory() && !cacheDir.mkdirs())
+			throw new IOException("Could not create item cache directory " + cacheDir);
+		this.cacheDir = cacheDir;
+		this.ttlMillis = ttlSeconds * 1000L;
+		this.requiredFlags = (includeAnnotations ? FLAG_ANNOTATIONS : 0)
+				| (includeRawDocs ? FLAG_DOC_REFS : 0) | (includeRawDocs && !lazyRawDocs ? FLAG_RAW_DOCS : 0);
+	}
+
+	/** Return the cached snapshot of the item with the supplied URI, or <code>null</code> if there is
+	 * no usable entry */
+	public ItemSnapshot get(String itemUri) {
+		File entry = entryFile(itemUri);
+		if (!entry.isFile())
+			return null;
+		if (ttlMillis > 0 && entry.lastModified() + ttlMillis < System.currentTimeMillis()) {
+			LOG.debug("Cache entry for {} has expired", itemUri);
+			return null;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new GZIPInputStream(new FileInputStream(entry))));
+			try {
+				return readEntry(in, itemUri);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			LOG.warn("Discarding unreadable cache entry {} for {}: {}", new Object[] {entry, itemUri, e.getMessage()});
+			entry.delete();
+			return null;
+		}
+	}
+
+	/** Store the supplied snapshot, replacing any existing entry for the same item.
+	 *
+	 * Failures are logged rather than thrown, since the cache is only an optimisation
+	 */
+	public void put(ItemSnapshot item) {
+		File entry = entryFile(item.getUri());
+		File dir = entry.getParentFile();
+		File tmp = null;
+		try {
+			if (!dir.isDirectory() && !dir.mkdirs())
+				throw new IOException("Could not create directory " + dir);
+			tmp = File.createTempFile("entry", ".tmp", dir);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					new GZIPOutputStream(new FileOutputStream(tmp))));
+			try {
+				writeEntry(out, item);
+			} finally {
+				out.close();
+			}
+			if (!tmp.renameTo(entry)) { // not atomic on all platforms if the target exists
+				entry.delete();
+				if (!tmp.renameTo(entry))
+					throw new IOException("Could not rename " + tmp + " to " + entry);
+			}
+		} catch (IOException e) {
+			LOG.warn("Could not write cache entry for {}: {}", item.getUri(), e.getMessage());
+			if (tmp != null)
+				tmp.delete();
+		}
+	}
+
+	private File entryFile(String itemUri) {
+		String hash = sha1Hex(itemUri);
+		return new File(new File(cacheDir, hash.substring(0, 2)), hash + ".item.gz");
+	}
+
+	private ItemSnapshot readEntry(DataInputStream in, String expectedUri) throws IOException {
+		if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+			throw new IOException("Unrecognised cache entry format");
+		int flags = in.readInt();
+		if ((flags & FLAG_RAW_DOCS) != 0)
+			flags |= FLAG_DOC_REFS; // not set by older entries
+		if ((flags & requiredFlags) != requiredFlags)
+			return null; // written by a reader configured to include less
+		String uri = readString(in);
+		if (!expectedUri.equals(uri))
+			return null; // hash collision
+		String primaryText = readString(in);
+		int numMetadata = in.readInt();
+		Map<String, String> metadata = new HashMap<String, String>(numMetadata * 2);
+		for (int i = 0; i < numMetadata; i++)
+			metadata.put(readString(in), readString(in));
+		List<ItemSnapshot.Annotation> anns = null;
+		if ((flags & FLAG_ANNOTATIONS) != 0) {
+			int numAnns = in.readInt();
+			anns = new ArrayList<ItemSnapshot.Annotation>(numAnns);
+			for (int i = 0; i < numAnns; i++)
+				anns.add(new ItemSnapshot.Annotation(readString(in), readString(in), in.readInt(), in.readInt()));
+		}
+		int numDocs = in.readInt();
+		List<ItemSnapshot.Document> docs = new ArrayList<ItemSnapshot.Document>(numDocs);
+		for (int i = 0; i < numDocs; i++)
+			docs.add(new ItemSnapshot.Document(readString(in), readString(in), readString(in)));
+		return new ItemSnapshot(uri, primaryText, metadata, anns, docs);
+	}
+
+	private void writeEntry(DataOutputStream out, ItemSnapshot item) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(FORMAT_VERSION);
+		out.writeInt((item.hasAnnotations() ? FLAG_ANNOTATIONS : 0) | (requiredFlags & (FLAG_RAW_DOCS | FLAG_DOC_REFS)));
+		writeString(out, item.getUri());
+		writeString(out, item.getPrimaryText());
+		out.writeInt(item.getMetadata().size());
+		for (Map.Entry<String, String> md : item.getMetadata().entrySet()) {
+			writeString(out, md.getKey());
+			writeString(out, md.getValue());
+		}
+		if (item.hasAnnotations()) {
+			out.writeInt(item.getAnnotations().size());
+			for (ItemSnapshot.Annotation ann : item.getAnnotations()) {
+				writeString(out, ann.getType());
+				writeString(out, ann.getLabel());
+				out.writeInt(ann.getStart());
+				out.writeInt(ann.getEnd());
+			}
+		}
+		out.writeInt(item.getDocuments().size());
+		for (ItemSnapshot.Document doc : item.getDocuments()) {
+			writeString(out, doc.getType());
+			writeString(out, doc.getDataUrl());
+			writeString(out, doc.getRawText());
+		}
+	}
+
+	// DataOutput.writeUTF() is limited to 64k, which is too small for document texts
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = s.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int len = in.readInt();
+		if (len < 0)
+			return null;
+		byte[] bytes = new byte[len];
+		in.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	private static String sha1Hex(String s) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e); // every JVM is required to support SHA-1
+		}
+		StringBuilder sb = new StringBuilder(40);
+		for (byte b : digest.digest(s.getBytes(UTF8)))
+			sb.append(String.format("%02x", b & 0xff));
+		return sb.toString();
+	}
+}
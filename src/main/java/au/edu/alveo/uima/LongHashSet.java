@@ -0,0 +1,94 @@
+package au.edu.alveo.uima;
+
+import java.util.Arrays;
+
+/**
+ * A minimal open-addressing hash set of primitive <code>long</code> values.
+ *
+ * This avoids the boxing and per-entry allocation of a <code>HashSet&lt;Long&gt;</code>,
+ * which matters when it is filled with hundreds of thousands of entries for every
+ * document. Only the operations needed by {@link AnnotationDiffer} are supported.
+ */
+class LongHashSet {
+	private static final long EMPTY = 0L;
+	private static final long ZERO_SUBSTITUTE = 0x9E3779B97F4A7C15L; // stored in place of 0, which marks empty slots
+
+	private long[] slots;
+	private int size;
+	private int mask;
+
+	LongHashSet(int expectedSize) {
+		allocate(expectedSize);
+	}
+
+	/** Remove all values, resizing the table for the expected number of new values */
+	public void clear(int expectedSize) {
+		if (capacityFor(expectedSize) != slots.length) {
+			allocate(expectedSize);
+		} else {
+			Arrays.fill(slots, EMPTY);
+			size = 0;
+		}
+	}
+
+	/** Add a value, returning <code>true</code> if it was not already present */
+	public boolean add(long value) {
+		if (value == EMPTY)
+			value = ZERO_SUBSTITUTE;
+		int i = indexFor(value);
+		while (slots[i] != EMPTY) {
+			if (slots[i] == value)
+				return false;
+			i = (i + 1) & mask;
+		}
+		slots[i] = value;
+		if (++size * 2 > slots.length)
+			rehash();
+		return true;
+	}
+
+	public boolean contains(long value) {
+		if (value == EMPTY)
+			value = ZERO_SUBSTITUTE;
+		int i = indexFor(value);
+		while (slots[i] != EMPTY) {
+			if (slots[i] == value)
+				return true;
+			i = (i + 1) & mask;
+		}
+		return false;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private int indexFor(long value) {
+		// values are expected to be well-mixed hashes, but fold in the high bits anyway
+		return (int) (value ^ (value >>> 32)) & mask;
+	}
+
+	private void rehash() {
+		long[] old = slots;
+		slots = new long[old.length * 2];
+		mask = slots.length - 1;
+		size = 0;
+		for (long v : old) {
+			if (v != EMPTY)
+				add(v);
+		}
+	}
+
+	private void allocate(int expectedSize) {
+		slots = new long[capacityFor(expectedSize)];
+		mask = slots.length - 1;
+		size = 0;
+	}
+
+	private static int capacityFor(int expectedSize) {
+		int capacity = 16;
+		while (capacity < expectedSize * 2)
+			capacity <<= 1;
+		return capacity;
+	}
+}
@@ -0,0 +1,90 @@
+package au.edu.alveo.uima;
+
+import au.edu.alveo.uima.utils.DaemonThreadFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads values from a sequence of sources on a pool of background threads, keeping up to
+ * a fixed number of loads in flight ahead of the consumer, and hands the loaded values
+ * back in the same order as the sources.
+ *
+ * This is used by {@link ItemListCollectionReader} so that the (latency-bound) retrieval of
+ * items from the server overlaps with the processing of earlier items. Instances are
+ * intended to be consumed from a single thread.
+ *
+ * @param <S> The type of the sources
+ * @param <T> The type of the loaded values
+ */
+class OrderedPrefetcher<S, T> {
+	/** The operation which is performed on the background threads for each source */
+	interface Loader<S, T> {
+		T load(S source) throws Exception;
+	}
+
+	private final Iterator<? extends S> sources;
+	private final Loader<S, T> loader;
+	private final int depth;
+	private final ExecutorService executor;
+	private final Deque<Future<T>> pending;
+
+	/**
+	 * @param sources The sources to load, in the order the loaded values should be returned
+	 * @param loader The loading operation
+	 * @param numThreads The number of background threads
+	 * @param depth The maximum number of sources which are loaded (or loading) ahead of the consumer;
+	 *              this is increased to <code>numThreads</code> if it is smaller
+	 */
+	OrderedPrefetcher(Iterator<? extends S> sources, Loader<S, T> loader, int numThreads, int depth) {
+		this.sources = sources;
+		this.loader = loader;
+		this.depth = Math.max(depth, numThreads);
+		this.pending = new ArrayDeque<Future<T>>(this.depth);
+		this.executor = Executors.newFixedThreadPool(numThreads, new DaemonThreadFactory("alveo-prefetch"));
+	}
+
+	public boolean hasNext() {
+		return !pending.isEmpty() || sources.hasNext();
+	}
+
+	/** Return the next loaded value, waiting for it to finish loading if necessary
+	 *
+	 * @throws ExecutionException if loading the value failed; the cause is the exception thrown by the loader
+	 */
+	public T next() throws ExecutionException, InterruptedException {
+		fill();
+		if (pending.isEmpty())
+			throw new NoSuchElementException();
+		Future<T> head = pending.removeFirst();
+		fill(); // keep the pool busy while we wait
+		return head.get();
+	}
+
+	/** Abandon any outstanding loads and stop the background threads */
+	public void close() {
+		for (Future<T> f : pending)
+			f.cancel(true);
+		pending.clear();
+		executor.shutdownNow();
+	}
+
+	private void fill() {
+		while (pending.size() < depth && sources.hasNext()) {
+			final S source = sources.next();
+			pending.addLast(executor.submit(new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					return loader.load(source);
+				}
+			}));
+		}
+	}
+}
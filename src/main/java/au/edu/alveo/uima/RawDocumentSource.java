@@ -0,0 +1,121 @@
+package au.edu.alveo.uima;
+
+import au.edu.alveo.uima.types.VLabDocSource;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.CASException;
+import org.apache.uima.fit.util.JCasUtil;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Retrieves the raw text of item documents which {@link ItemListCollectionReader} stored
+ * lazily (with <code>lazyRawDocs</code> set). Such views have the URL of the document on the
+ * server as their sofa URI instead of the text itself, and components which need the text
+ * should get it with {@link #getRawText(CAS)}, which only contacts the server the first time
+ * a document is needed (UIMA's own handling of sofa URIs can't be used, since the server
+ * needs an API key).
+ *
+ * There is one instance per server and API key, shared by all readers in the JVM which use
+ * them, holding a cache of the most recently retrieved documents, so that several components
+ * reading the same document only retrieve it once. Readers with different API keys for the
+ * same server get different instances, and each view records the ID of the instance to
+ * retrieve its document with. Instances are safe for concurrent use.
+ */
+public class RawDocumentSource {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final Map<String, RawDocumentSource> instances = new HashMap<String, RawDocumentSource>();
+
+	private final String id;
+	private final String apiKey;
+	private final Map<String, String> cache;
+
+	private RawDocumentSource(String id, String apiKey, final int cacheSize) {
+		this.id = id;
+		this.apiKey = apiKey;
+		this.cache = new LinkedHashMap<String, String>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	/** Register the credentials for a server, so that documents from it can be retrieved.
+	 *
+	 * If the server was already registered with the same API key, the existing instance (and
+	 * its cache) is kept, although its cache size is not changed.
+	 */
+	static RawDocumentSource register(String serverBaseUrl, String apiKey, int cacheSize) {
+		// the ID is stored in CASes, which may be written out, so it only has a hash of the key
+		String id = serverBaseUrl + " " + AlveoHttp.apiKeyHash(apiKey);
+		synchronized (instances) {
+			RawDocumentSource source = instances.get(id);
+			if (source == null) {
+				source = new RawDocumentSource(id, apiKey, cacheSize);
+				instances.put(id, source);
+			}
+			return source;
+		}
+	}
+
+	/** Get the registered source with the supplied ID, or <code>null</code> if no reader has registered it */
+	public static RawDocumentSource forId(String id) {
+		synchronized (instances) {
+			return instances.get(id);
+		}
+	}
+
+	/** The ID to record in views whose documents should be retrieved with this instance */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Get the text of the document in the supplied view, which was created by
+	 * {@link ItemListCollectionReader} to hold a raw document, whether or not the text
+	 * was stored in the CAS.
+	 *
+	 * @return the document text, or <code>null</code> if the view has no document
+	 * @throws IOException if the text could not be retrieved from the server
+	 */
+	public static String getRawText(CAS view) throws IOException {
+		String text = view.getSofaDataString();
+		if (text != null)
+			return text;
+		String dataUrl = view.getSofaDataURI();
+		if (dataUrl == null)
+			return null;
+		String sourceId = null;
+		try {
+			for (VLabDocSource docSource : JCasUtil.select(view.getJCas(), VLabDocSource.class))
+				sourceId = docSource.getRawDocSourceId();
+		} catch (CASException e) {
+			throw new IOException(e);
+		}
+		RawDocumentSource source = sourceId == null ? null : forId(sourceId);
+		if (source == null)
+			throw new IOException("No API key is registered for the server of " + dataUrl);
+		return source.fetch(dataUrl);
+	}
+
+	/** Get the text at the supplied URL from the cache, or otherwise from the server */
+	public String fetch(String dataUrl) throws IOException {
+		synchronized (cache) {
+			String text = cache.get(dataUrl);
+			if (text != null)
+				return text;
+		}
+		// the lock isn't held while downloading, so concurrent requests for the same
+		// (uncached) document may both retrieve it, which is harmless
+		String text = new String(AlveoHttp.download(new URL(dataUrl), apiKey, null), UTF8);
+		synchronized (cache) {
+			cache.put(dataUrl, text);
+		}
+		return text;
+	}
+}
@@ -2,6 +2,7 @@ package au.edu.alveo.uima;
 
 import au.edu.alveo.uima.conversions.UIMAAlveoTypeNameMapping;
 import au.edu.alveo.client.RestClient;
+import au.edu.alveo.uima.utils.DaemonThreadFactory;
 import org.apache.uima.fit.factory.TypeSystemDescriptionFactory;
 import org.apache.uima.resource.ResourceInitializationException;
 import org.apache.uima.resource.metadata.TypeDescription;
@@ -19,11 +20,33 @@ import org.openrdf.repository.sparql.SPARQLRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.net.URISyntaxException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Created by amack on 27/03/14.
@@ -32,10 +55,20 @@ import java.util.Set;
  */
 public class TypeSystemAutoAugmenter {
 	private static final Logger LOG = LoggerFactory.getLogger(TypeSystemAutoAugmenter.class);
+	private static final int SNAPSHOT_FORMAT_VERSION = 2;
+	private static final String SNAPSHOT_VERSION_KEY = "version";
+	private static final String SNAPSHOT_SERVER_KEY = "server";
+	private static final String SNAPSHOT_API_KEY_HASH_KEY = "apiKeyHash";
+	private static final String SNAPSHOT_CREATED_KEY = "created";
+	private static final String SNAPSHOT_CORPUS_PREFIX = "corpus.";
+	private static final Charset SNAPSHOT_CHARSET = Charset.forName("UTF-8");
 	private RestClient restClient;
 	private final Set<String> knownCorpora = new HashSet<String>(20);
 	private Set<String> knownGeneratedTypeNames = new HashSet<String>(40);
 	private Set<String> knownExistingTypeNames = new HashSet<String>(40);
+	private final Map<String, List<String>> corpusTypeUris = new TreeMap<String, List<String>>();
+	// when the oldest types in corpusTypeUris were read from the server, if they came from a snapshot
+	private long snapshotCreatedMillis = Long.MAX_VALUE;
 
 	private final TypeSystemDescription tsd;
 
@@ -43,6 +76,11 @@ public class TypeSystemAutoAugmenter {
 		this(rc, TypeSystemDescriptionFactory.createTypeSystemDescription());
 	}
 
+	/**
+	 * @param rc The client used to query the server for types; this may be <code>null</code>
+	 *           if types will only be loaded from a snapshot
+	 * @param extTypeSystem The type system to add the types to
+	 */
 	public TypeSystemAutoAugmenter(RestClient rc, TypeSystemDescription extTypeSystem) {
 		restClient = rc;
 		tsd = extTypeSystem;
@@ -60,13 +98,158 @@ public class TypeSystemAutoAugmenter {
 		if (knownCorpora.contains(corpusName))
 			return;
 		importTypesForCorpus(corpusName);
-		knownCorpora.add(corpusName);
 	}
 
 	public TypeSystemDescription getTypeSystemDescription() {
 		return tsd;
 	}
 
+	/** Set the client used to query the server for the types of corpora which are added later,
+	 * such as those which were missing from a snapshot */
+	public void setRestClient(RestClient rc) {
+		restClient = rc;
+	}
+
+	/** Add the supplied annotation type URIs for a corpus, as if they had been read from the server.
+	 *
+	 * No-op if the corpus has already been added.
+	 */
+	public void addCorpusTypes(String corpusName, Collection<String> typeUris) throws URISyntaxException {
+		if (knownCorpora.contains(corpusName))
+			return;
+		for (String typeUri : typeUris)
+			insertType(typeUri);
+		corpusTypeUris.put(corpusName, new ArrayList<String>(typeUris));
+		knownCorpora.add(corpusName);
+	}
+
+	/** Write the type URIs of all corpora added so far to a snapshot file, which can be read
+	 * by {@link #loadSnapshot(java.io.File, String, String, java.util.Collection, long)} to avoid
+	 * querying the server again.
+	 *
+	 * The file is a versioned plain-text listing of the type URIs for each corpus; the UIMA
+	 * type descriptions are regenerated from these when the snapshot is loaded, which is
+	 * cheap and deterministic. Corpora whose query failed (for instance because the API key
+	 * doesn't give access to them) are left out, so that they are queried again next time.
+	 * If some of the corpora were loaded from an earlier snapshot, the new snapshot keeps
+	 * its creation time, so that their types still expire when they would have done.
+	 *
+	 * @param file The file to write
+	 * @param serverUrl The server the types were read from, which must match when loading
+	 * @param apiKey The API key the types were read with, which must match when loading;
+	 *               only a hash of it is stored
+	 */
+	public void saveSnapshot(File file, String serverUrl, String apiKey) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tmp), SNAPSHOT_CHARSET));
+		try {
+			out.println("# Alveo annotation type URIs by collection");
+			out.println(SNAPSHOT_VERSION_KEY + "=" + SNAPSHOT_FORMAT_VERSION);
+			out.println(SNAPSHOT_SERVER_KEY + "=" + serverUrl);
+			out.println(SNAPSHOT_API_KEY_HASH_KEY + "=" + AlveoHttp.apiKeyHash(apiKey));
+			out.println(SNAPSHOT_CREATED_KEY + "=" + Math.min(snapshotCreatedMillis, System.currentTimeMillis()));
+			for (Map.Entry<String, List<String>> corpus : corpusTypeUris.entrySet()) {
+				out.print(SNAPSHOT_CORPUS_PREFIX + corpus.getKey() + "=");
+				String sep = "";
+				for (String typeUri : corpus.getValue()) {
+					out.print(sep);
+					out.print(typeUri);
+					sep = " ";
+				}
+				out.println();
+			}
+		} finally {
+			out.close();
+		}
+		if (out.checkError())
+			throw new IOException("Could not write type system snapshot " + tmp);
+		if (!tmp.renameTo(file)) {
+			file.delete();
+			if (!tmp.renameTo(file))
+				throw new IOException("Could not rename " + tmp + " to " + file);
+		}
+	}
+
+	/** Add the types for the supplied corpora from a snapshot written by
+	 * {@link #saveSnapshot(java.io.File, String, String)}, if the snapshot is usable.
+	 *
+	 * The snapshot is only used if it has the current format version, was written for the same
+	 * server and API key, and is no older than <code>maxAgeSeconds</code>; otherwise nothing is
+	 * added. The types of the requested corpora which it contains are added, and any others
+	 * (such as those whose query failed when it was written) should be read from the server.
+	 *
+	 * @param maxAgeSeconds The maximum age of a usable snapshot, or zero if snapshots never expire
+	 * @return whether the types of all of the requested corpora were loaded from the snapshot
+	 */
+	public boolean loadSnapshot(File file, String serverUrl, String apiKey, Collection<String> corpusNames,
+			long maxAgeSeconds) throws URISyntaxException {
+		if (!file.isFile())
+			return false;
+		Map<String, String> entries = new HashMap<String, String>();
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), SNAPSHOT_CHARSET));
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					int sep = line.indexOf('=');
+					if (line.startsWith("#") || sep < 0)
+						continue;
+					entries.put(line.substring(0, sep), line.substring(sep + 1));
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			LOG.warn("Could not read type system snapshot {}: {}", file, e.getMessage());
+			return false;
+		}
+		if (!String.valueOf(SNAPSHOT_FORMAT_VERSION).equals(entries.get(SNAPSHOT_VERSION_KEY))) {
+			LOG.info("Ignoring type system snapshot {} with unsupported version", file);
+			return false;
+		}
+		if (!serverUrl.equals(entries.get(SNAPSHOT_SERVER_KEY))) {
+			LOG.info("Ignoring type system snapshot {} for a different server", file);
+			return false;
+		}
+		if (!AlveoHttp.apiKeyHash(apiKey).equals(entries.get(SNAPSHOT_API_KEY_HASH_KEY))) {
+			LOG.info("Ignoring type system snapshot {} for a different API key", file);
+			return false;
+		}
+		long created;
+		try {
+			created = Long.parseLong(entries.get(SNAPSHOT_CREATED_KEY));
+		} catch (NumberFormatException e) {
+			LOG.warn("Ignoring type system snapshot {} with invalid creation time", file);
+			return false;
+		}
+		if (maxAgeSeconds > 0 && created + maxAgeSeconds * 1000 < System.currentTimeMillis()) {
+			LOG.info("Type system snapshot {} is out of date", file);
+			return false;
+		}
+		Map<String, List<String>> snapshotTypes = new LinkedHashMap<String, List<String>>();
+		boolean complete = true;
+		for (String corpusName : corpusNames) {
+			String typeUris = entries.get(SNAPSHOT_CORPUS_PREFIX + corpusName);
+			if (typeUris == null) {
+				LOG.info("Type system snapshot {} has no entry for collection {}", file, corpusName);
+				complete = false;
+				continue;
+			}
+			List<String> uris = new ArrayList<String>();
+			for (String typeUri : typeUris.split(" ")) {
+				if (!typeUri.isEmpty())
+					uris.add(typeUri);
+			}
+			snapshotTypes.put(corpusName, uris);
+		}
+		for (Map.Entry<String, List<String>> corpus : snapshotTypes.entrySet())
+			addCorpusTypes(corpus.getKey(), corpus.getValue());
+		if (!snapshotTypes.isEmpty())
+			snapshotCreatedMillis = Math.min(snapshotCreatedMillis, created);
+		LOG.info("Loaded types for {} collections from snapshot {}", snapshotTypes.size(), file);
+		return complete;
+	}
+
 	private void insertType(String sourceUri) throws URISyntaxException {
 		String typeName;
 		try {
@@ -94,26 +277,101 @@ public class TypeSystemAutoAugmenter {
 
 	private void importTypesForCorpus(String corpusName) throws URISyntaxException,
 			QueryEvaluationException, MalformedQueryException, RepositoryException {
+		Collection<String> typeUris;
 		try {
-			for (String typeUri : getTypeURIsForCorpus(corpusName))
-				insertType(typeUri);
+			typeUris = getTypeURIsForCorpus(corpusName);
 		} catch (QueryEvaluationException e) {
-			Throwable cause = e.getCause();
-			// if it's just an authorization problem, that's probably
-			// because the corpus name is invalid.
-			// this could be because we're hardcoding the corpus names
-			// due to https://track.intersect.org.au/browse/HCSVLAB-868
-			// XXX: once fixed, take out this catch clause
-			boolean isRepoException = cause instanceof RepositoryException;
-			boolean isAuth = isRepoException && cause.getMessage().contains("not authorized");
-			boolean isMissing = isRepoException && cause.getMessage().contains("no such resource");
-			if (isMissing)
-				LOG.error("Collection {} was not found", corpusName);
-			else if (isAuth)
-				LOG.error("Insufficient priveleges for collection {}", corpusName);
-			else
-				throw e;
+			handleQueryFailure(corpusName, e);
+			knownCorpora.add(corpusName); // don't query it again, but don't save it to a snapshot
+			return;
 		}
+		addCorpusTypes(corpusName, typeUris);
+	}
+
+	/** Read the types for several corpora, running the queries for each corpus in parallel.
+	 *
+	 * The types are added in the same order as if {@link #addCorpus(String)} had been
+	 * called for each corpus in turn, so the resulting type system does not depend on
+	 * which queries finish first. Corpora which have already been added are skipped.
+	 *
+	 * @param corpusNames The corpora to add
+	 * @param numThreads The maximum number of queries to run at once; if this is 1 or less,
+	 *                   the corpora are added serially
+	 * @param timeoutSeconds The maximum time to wait for all queries to complete; if this is
+	 *                       zero or less, there is no limit
+	 */
+	public void addCorpora(Collection<String> corpusNames, int numThreads, long timeoutSeconds)
+			throws URISyntaxException, OpenRDFException {
+		Set<String> toAdd = new LinkedHashSet<String>(corpusNames);
+		toAdd.removeAll(knownCorpora);
+		if (numThreads <= 1 || toAdd.size() <= 1) {
+			for (String corpusName : toAdd)
+				addCorpus(corpusName);
+			return;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, toAdd.size()),
+				new DaemonThreadFactory("alveo-type-discovery"));
+		try {
+			Map<String, Future<Collection<String>>> results = new LinkedHashMap<String, Future<Collection<String>>>();
+			for (final String corpusName : toAdd) {
+				results.put(corpusName, executor.submit(new Callable<Collection<String>>() {
+					@Override
+					public Collection<String> call() throws OpenRDFException {
+						return getTypeURIsForCorpus(corpusName);
+					}
+				}));
+			}
+			long deadline = System.currentTimeMillis() + timeoutSeconds * 1000;
+			for (Map.Entry<String, Future<Collection<String>>> result : results.entrySet()) {
+				String corpusName = result.getKey();
+				Collection<String> typeUris;
+				try {
+					if (timeoutSeconds <= 0)
+						typeUris = result.getValue().get();
+					else
+						typeUris = result.getValue().get(Math.max(deadline - System.currentTimeMillis(), 0),
+								TimeUnit.MILLISECONDS);
+				} catch (TimeoutException e) {
+					throw new QueryEvaluationException("Timed out querying types for collection " + corpusName);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new QueryEvaluationException(e);
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof QueryEvaluationException) {
+						handleQueryFailure(corpusName, (QueryEvaluationException) cause);
+						knownCorpora.add(corpusName);
+						continue;
+					} else if (cause instanceof OpenRDFException) {
+						throw (OpenRDFException) cause;
+					} else if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					}
+					throw new RuntimeException(cause);
+				}
+				addCorpusTypes(corpusName, typeUris);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void handleQueryFailure(String corpusName, QueryEvaluationException e) throws QueryEvaluationException {
+		Throwable cause = e.getCause();
+		// if it's just an authorization problem, that's probably
+		// because the corpus name is invalid.
+		// this could be because we're hardcoding the corpus names
+		// due to https://track.intersect.org.au/browse/HCSVLAB-868
+		// XXX: once fixed, take out this method
+		boolean isRepoException = cause instanceof RepositoryException;
+		boolean isAuth = isRepoException && cause.getMessage().contains("not authorized");
+		boolean isMissing = isRepoException && cause.getMessage().contains("no such resource");
+		if (isMissing)
+			LOG.error("Collection {} was not found", corpusName);
+		else if (isAuth)
+			LOG.error("Insufficient priveleges for collection {}", corpusName);
+		else
+			throw e;
 	}
 
 	private Collection<String> getTypeURIsForCorpus(String corpusName) throws QueryEvaluationException, MalformedQueryException, RepositoryException {
@@ -0,0 +1,32 @@
+package au.edu.alveo.uima.conversions;
+
+import au.edu.alveo.client.TextRestAnnotation;
+import org.apache.uima.cas.text.AnnotationFS;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Utility methods for applying converters to many annotations.
+ */
+public class AnnotationConversions {
+	private AnnotationConversions() {
+	}
+
+	/** Convert all of the supplied annotations with the supplied converter, using its batch
+	 * conversion if it implements {@link BatchUIMAToAlveoAnnConverter}
+	 *
+	 * @return The converted annotations, in the same order as <code>anns</code>
+	 */
+	public static List<TextRestAnnotation> convertAll(UIMAToAlveoAnnConverter converter,
+			Collection<? extends AnnotationFS> anns)
+			throws UIMAToAlveoAnnConverter.NotInitializedException, UIMAToAlveoAnnConverter.InvalidAnnotationTypeException {
+		if (converter instanceof BatchUIMAToAlveoAnnConverter)
+			return ((BatchUIMAToAlveoAnnConverter) converter).convertAllToAlveo(anns);
+		List<TextRestAnnotation> converted = new ArrayList<TextRestAnnotation>(anns.size());
+		for (AnnotationFS ann : anns)
+			converted.add(converter.convertToAlveo(ann));
+		return converted;
+	}
+}
@@ -0,0 +1,30 @@
+package au.edu.alveo.uima.conversions;
+
+import au.edu.alveo.client.TextRestAnnotation;
+import org.apache.uima.cas.text.AnnotationFS;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A converter which can convert many annotations in a single call, which allows
+ * implementations to do any per-type or per-call work once for a whole batch rather
+ * than once per annotation.
+ *
+ * Callers should use {@link AnnotationConversions#convertAll(UIMAToAlveoAnnConverter, java.util.Collection)},
+ * which uses this interface when the converter implements it and otherwise converts
+ * the annotations one at a time.
+ */
+public interface BatchUIMAToAlveoAnnConverter extends UIMAToAlveoAnnConverter {
+
+	/** Convert all of the supplied annotations to the Alveo format.
+	 *
+	 * The result must be the same as calling {@link #convertToAlveo(org.apache.uima.cas.text.AnnotationFS)}
+	 * on each annotation in turn.
+	 *
+	 * @param anns The UIMA annotations to convert
+	 * @return The converted annotations, in the same order as <code>anns</code>
+	 */
+	public List<TextRestAnnotation> convertAllToAlveo(Collection<? extends AnnotationFS> anns)
+			throws NotInitializedException, InvalidAnnotationTypeException;
+}
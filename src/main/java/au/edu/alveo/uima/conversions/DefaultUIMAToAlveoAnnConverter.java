@@ -2,15 +2,14 @@ package au.edu.alveo.uima.conversions;
 
 import au.edu.alveo.client.TextRestAnnotation;
 import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.Type;
 import org.apache.uima.cas.TypeSystem;
 import org.apache.uima.cas.text.AnnotationFS;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.TreeSet;
 
 /**
  * The default converter for creating Alveo annotations from UIMA annotations.
@@ -25,7 +24,7 @@ import java.util.TreeSet;
  * annotation, a fallback value is used. For the <code>type</code> URI, this is created by automatically
  * converting the type name to a URI in a sensible way. For the label this is simply the empty string
  */
-public class DefaultUIMAToAlveoAnnConverter implements UIMAToAlveoAnnConverter {
+public class DefaultUIMAToAlveoAnnConverter implements BatchUIMAToAlveoAnnConverter {
 	private final String[] annTypeFeatureNames;
 	private final String[] labelFeatureNames;
 	private TypeSystem currentTypeSystem;
@@ -52,24 +51,45 @@ public class DefaultUIMAToAlveoAnnConverter implements UIMAToAlveoAnnConverter {
 		if (ts.equals(currentTypeSystem))
 			return;
 		currentTypeSystem = ts;
+		annTypeFeatures.clear();
+		labelFeatures.clear();
+		resolvedTypes = new boolean[0];
+		annTypeFeaturesByType = new Feature[0];
+		labelFeaturesByType = new Feature[0];
 		if (canConvertAnnotations())
 			initFeatureMappings();
 	}
 
-	private Map<String, Set<Feature>> cachedFeatureSets = new HashMap<String, Set<Feature>>();
+	// the annotation type and label features to use for each type, indexed by type code
+	// and filled in when a type is first seen (null means the type has no such feature)
+	private boolean[] resolvedTypes = new boolean[0];
+	private Feature[] annTypeFeaturesByType = new Feature[0];
+	private Feature[] labelFeaturesByType = new Feature[0];
 
-	private Set<Feature> getKnownFeatures(AnnotationFS ann) {
-		// basic function to memoize feature sets
-		String annType = ann.getType().getName();
-		Set<Feature> knownFeatures = cachedFeatureSets.get(annType);
-		if (knownFeatures == null) {
-			knownFeatures = new TreeSet<Feature>();
-			knownFeatures.addAll(ann.getType().getFeatures());
-			cachedFeatureSets.put(annType, knownFeatures);
+	private int resolveFeatures(Type type) {
+		int code = TypeCodes.codeOf(type);
+		if (code < resolvedTypes.length && resolvedTypes[code])
+			return code;
+		if (code >= resolvedTypes.length) {
+			int newLength = Math.max(code + 1, resolvedTypes.length * 2);
+			resolvedTypes = Arrays.copyOf(resolvedTypes, newLength);
+			annTypeFeaturesByType = Arrays.copyOf(annTypeFeaturesByType, newLength);
+			labelFeaturesByType = Arrays.copyOf(labelFeaturesByType, newLength);
 		}
-		return knownFeatures;
+		List<Feature> features = type.getFeatures();
+		annTypeFeaturesByType[code] = firstPresent(annTypeFeatures, features);
+		labelFeaturesByType[code] = firstPresent(labelFeatures, features);
+		resolvedTypes[code] = true;
+		return code;
 	}
 
+	private static Feature firstPresent(List<Feature> candidates, List<Feature> features) {
+		for (Feature candidate : candidates) {
+			if (features.contains(candidate))
+				return candidate;
+		}
+		return null;
+	}
 
 	private void initFeatureMappings() {
 		for (String annTypeFN: annTypeFeatureNames) {
@@ -97,30 +117,39 @@ public class DefaultUIMAToAlveoAnnConverter implements UIMAToAlveoAnnConverter {
 	public TextRestAnnotation convertToAlveo(AnnotationFS ann) throws NotInitializedException {
 		if (!canConvertAnnotations())
 			throw new NotInitializedException("This converter has not been initialized for full-scale type conversion");
-		String annType = null;
-		Set<Feature> features = getKnownFeatures(ann);
-		for (Feature atf : annTypeFeatures) {
-//			try {
-//				annType = ann.getFeatureValueAsString(atf);
-//				break;
-//			} catch (CASRuntimeException e) {
-//			}
-			// not sure why the above doesn't work
-			if (features.contains(atf)) { // XXX - O(n)
-				annType = ann.getFeatureValueAsString(atf);
-				break;
-			}
-		}
-		if (annType == null) // haven't found anything - make en educated guess
-			annType = getAlveoTypeUriForTypeName(ann.getType().getName());
-		String label = ""; // don't guess for this one - just make it empty
-		for (Feature lf : labelFeatures) {
-			if (features.contains(lf)) { // XXX - O(n)
-				label = ann.getFeatureValueAsString(lf);
-				break;
+		Type type = ann.getType();
+		int code = resolveFeatures(type);
+		return convert(ann, type, annTypeFeaturesByType[code], labelFeaturesByType[code]);
+	}
+
+	@Override
+	public List<TextRestAnnotation> convertAllToAlveo(Collection<? extends AnnotationFS> anns)
+			throws NotInitializedException {
+		if (!canConvertAnnotations())
+			throw new NotInitializedException("This converter has not been initialized for full-scale type conversion");
+		List<TextRestAnnotation> converted = new ArrayList<TextRestAnnotation>(anns.size());
+		Type prevType = null;
+		Feature annTypeFeature = null;
+		Feature labelFeature = null;
+		for (AnnotationFS ann : anns) {
+			Type type = ann.getType();
+			if (type != prevType) { // runs of the same type are common, so avoid the lookups for them
+				int code = resolveFeatures(type);
+				annTypeFeature = annTypeFeaturesByType[code];
+				labelFeature = labelFeaturesByType[code];
+				prevType = type;
 			}
+			converted.add(convert(ann, type, annTypeFeature, labelFeature));
 		}
+		return converted;
+	}
 
+	private TextRestAnnotation convert(AnnotationFS ann, Type type, Feature annTypeFeature, Feature labelFeature) {
+		String annType = annTypeFeature != null ? ann.getFeatureValueAsString(annTypeFeature) : null;
+		if (annType == null) // haven't found anything - make en educated guess
+			annType = getAlveoTypeUriForTypeName(type.getName());
+		// don't guess for the label - just make it empty
+		String label = labelFeature != null ? ann.getFeatureValueAsString(labelFeature) : "";
 		return new TextRestAnnotation(annType, label, ann.getBegin(), ann.getEnd());
 	}
 
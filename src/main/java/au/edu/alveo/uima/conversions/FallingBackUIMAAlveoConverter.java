@@ -1,17 +1,39 @@
 package au.edu.alveo.uima.conversions;
 
 import au.edu.alveo.client.TextRestAnnotation;
+import org.apache.uima.cas.Type;
 import org.apache.uima.cas.TypeSystem;
 import org.apache.uima.cas.text.AnnotationFS;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by amack on 14/04/14.
+ *
+ * Delegates to the first of a chain of converters which handles each type. The choice of
+ * converter is made once per type rather than per annotation: when the type system is set,
+ * a dispatch table indexed by type code is built for all of its types, and converters are
+ * chosen for other type names (which can be requested through
+ * {@link #getAlveoTypeUriForTypeName(String)}) the first time the name is seen. Type names
+ * which no converter handles are remembered as such.
  */
-public class FallingBackUIMAAlveoConverter implements UIMAToAlveoAnnConverter {
+public class FallingBackUIMAAlveoConverter implements BatchUIMAToAlveoAnnConverter {
+	private static final int NO_MATCH = -1;
+	private static final int UNKNOWN = -2;
+
 	private final List<UIMAToAlveoAnnConverter> converters = new ArrayList<UIMAToAlveoAnnConverter>();
+	private TypeSystem currentTypeSystem = null;
+	// the index of the converter for each type, indexed by type code
+	private int[] convertersByTypeCode = new int[0];
+	// the type which owns each code, so that types from other type systems aren't looked up by code
+	private Type[] typesByCode = new Type[0];
+	private final Map<String, Integer> convertersByTypeName = new HashMap<String, Integer>();
 
 	public FallingBackUIMAAlveoConverter(List<? extends UIMAToAlveoAnnConverter> converters) {
 		this.converters.addAll(converters);
@@ -24,36 +46,97 @@ public class FallingBackUIMAAlveoConverter implements UIMAToAlveoAnnConverter {
 
 	@Override
 	public void setTypeSystem(TypeSystem ts) {
+		if (ts.equals(currentTypeSystem))
+			return;
+		currentTypeSystem = ts;
 		for (UIMAToAlveoAnnConverter conv : converters)
 			conv.setTypeSystem(ts);
+		// the converters may only know which types they handle once they have the type system
+		convertersByTypeName.clear();
+		int maxCode = 0;
+		List<Type> types = new ArrayList<Type>();
+		Iterator<Type> typeIter = ts.getTypeIterator();
+		while (typeIter.hasNext()) {
+			Type type = typeIter.next();
+			types.add(type);
+			maxCode = Math.max(maxCode, TypeCodes.codeOf(type));
+		}
+		int[] table = new int[maxCode + 1];
+		Type[] owners = new Type[maxCode + 1];
+		Arrays.fill(table, UNKNOWN);
+		for (Type type : types) {
+			table[TypeCodes.codeOf(type)] = converterIndexForName(type.getName());
+			owners[TypeCodes.codeOf(type)] = type;
+		}
+		convertersByTypeCode = table;
+		typesByCode = owners;
 	}
 
 	@Override
 	public TextRestAnnotation convertToAlveo(AnnotationFS ann) throws NotInitializedException, InvalidAnnotationTypeException {
-		String typeName = ann.getType().getName();
-		for (UIMAToAlveoAnnConverter conv : converters) {
-			if (conv.handlesTypeName(typeName))
-				return conv.convertToAlveo(ann);
+		return getConverter(ann.getType()).convertToAlveo(ann);
+	}
+
+	/** Convert the annotations, passing each run of consecutive annotations which
+	 * are handled by the same converter to that converter as a batch */
+	@Override
+	public List<TextRestAnnotation> convertAllToAlveo(Collection<? extends AnnotationFS> anns)
+			throws NotInitializedException, InvalidAnnotationTypeException {
+		List<TextRestAnnotation> converted = new ArrayList<TextRestAnnotation>(anns.size());
+		List<AnnotationFS> run = new ArrayList<AnnotationFS>();
+		UIMAToAlveoAnnConverter runConverter = null;
+		for (AnnotationFS ann : anns) {
+			UIMAToAlveoAnnConverter conv = getConverter(ann.getType());
+			if (conv != runConverter && !run.isEmpty()) {
+				converted.addAll(AnnotationConversions.convertAll(runConverter, run));
+				run.clear();
+			}
+			runConverter = conv;
+			run.add(ann);
 		}
-		throw new NoConverterMatchException("No configured converter matched");
+		if (!run.isEmpty())
+			converted.addAll(AnnotationConversions.convertAll(runConverter, run));
+		return converted;
 	}
 
 	@Override
 	public String getAlveoTypeUriForTypeName(String uimaTypeName) {
-		for (UIMAToAlveoAnnConverter conv : converters) {
-			if (conv.handlesTypeName(uimaTypeName))
-				return conv.getAlveoTypeUriForTypeName(uimaTypeName);
-		}
-		throw new NoConverterMatchException("No configured converter matched");
+		int index = converterIndexForName(uimaTypeName);
+		if (index == NO_MATCH)
+			throw new NoConverterMatchException("No configured converter matched");
+		return converters.get(index).getAlveoTypeUriForTypeName(uimaTypeName);
 	}
 
 	@Override
 	public boolean handlesTypeName(String uimaTypeName) {
-		for (UIMAToAlveoAnnConverter conv : converters) {
-			if (conv.handlesTypeName(uimaTypeName))
-				return true;
+		return converterIndexForName(uimaTypeName) != NO_MATCH;
+	}
+
+	private UIMAToAlveoAnnConverter getConverter(Type type) {
+		int code = TypeCodes.codeOf(type);
+		// a type from another type system may have the code of an unrelated type in ours,
+		// so the table is only used for the types it was built from
+		int index = code < typesByCode.length && typesByCode[code] == type ? convertersByTypeCode[code] : UNKNOWN;
+		if (index == UNKNOWN) // not from the type system we were given
+			index = converterIndexForName(type.getName());
+		if (index == NO_MATCH)
+			throw new NoConverterMatchException("No configured converter matched");
+		return converters.get(index);
+	}
+
+	private int converterIndexForName(String uimaTypeName) {
+		Integer index = convertersByTypeName.get(uimaTypeName);
+		if (index == null) {
+			index = NO_MATCH;
+			for (int i = 0; i < converters.size(); i++) {
+				if (converters.get(i).handlesTypeName(uimaTypeName)) {
+					index = i;
+					break;
+				}
+			}
+			convertersByTypeName.put(uimaTypeName, index);
 		}
-		return false;
+		return index;
 	}
 
 	public class NoConverterMatchException extends RuntimeException {
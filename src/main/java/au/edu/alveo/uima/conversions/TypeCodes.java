@@ -0,0 +1,18 @@
+package au.edu.alveo.uima.conversions;
+
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.impl.TypeImpl;
+
+/**
+ * Access to the internal integer codes of UIMA types, which are small, dense and unique
+ * within a type system, so they can be used to index arrays of per-type information
+ * instead of looking types up by name.
+ *
+ * Codes from different type systems are unrelated, so anything indexed by them must be
+ * discarded when the type system changes.
+ */
+class TypeCodes {
+	static int codeOf(Type type) {
+		return ((TypeImpl) type).getCode();
+	}
+}
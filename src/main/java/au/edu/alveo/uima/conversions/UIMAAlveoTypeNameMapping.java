@@ -2,32 +2,53 @@ package au.edu.alveo.uima.conversions;
 
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.Stack;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Created by amack on 11/04/14.
+ *
+ * The mappings in both directions are memoised, since they are requested for every
+ * annotation which is converted, but the number of distinct types is small. The caches
+ * are safe for concurrent use and are simply cleared if they ever grow beyond a fixed size.
  */
 public class UIMAAlveoTypeNameMapping {
+	private static final int MAX_CACHE_SIZE = 4096;
+	private static final ConcurrentMap<String, String> typeNamesForUris = new ConcurrentHashMap<String, String>();
+	private static final ConcurrentMap<String, String> urisForTypeNames = new ConcurrentHashMap<String, String>();
+
 	public static String getTypeNameForUri(String typeURI) throws URISyntaxException {
+		String typeName = typeNamesForUris.get(typeURI);
+		if (typeName == null) {
+			typeName = computeTypeNameForUri(typeURI);
+			cache(typeNamesForUris, typeURI, typeName);
+		}
+		return typeName;
+	}
+
+	static String computeTypeNameForUri(String typeURI) throws URISyntaxException {
 		URI uri = new URI(typeURI);
-		Stack<String> packageComps = new Stack<String>();
+		List<String> packageComps = new ArrayList<String>();
 		if (uri.getHost() == null)
 			throw new URISyntaxException(typeURI, "URI has no hostname component");
-		String[] origHostComps = uri.getHost().split("\\.");
+		String[] origHostComps = split(uri.getHost(), '.');
 		// need to go from small-endian domain to big-endian
 		// like a java package name
- 		for (int i = origHostComps.length - 1; i >= 0; i--)
+		for (int i = origHostComps.length - 1; i >= 0; i--)
 			packageComps.add(sanitizeLower(origHostComps[i])); // get rid of eg '-'
-		for (String pathComp : uri.getPath().split("/")) {
+		for (String pathComp : split(uri.getPath(), '/')) {
 			if (!pathComp.isEmpty())
 				packageComps.add(pathComp);
 		}
 		if (uri.getFragment() != null)
 			packageComps.add(uri.getFragment());
-		String typeName = sanitizeUpperCamel(packageComps.pop()); // last element is the name eg SpeakerAnnotation
-		StringBuffer fqTypeName = new StringBuffer();
+		// last element is the name eg SpeakerAnnotation
+		String typeName = sanitizeUpperCamel(packageComps.remove(packageComps.size() - 1));
+		if (typeName.isEmpty()) // eg an empty fragment, or a name with no word characters
+			throw new URISyntaxException(typeURI, "URI has no type name component");
+		StringBuilder fqTypeName = new StringBuilder(typeURI.length());
 		for (String pc : packageComps) {
 			fqTypeName.append(sanitizeLower(pc));
 			fqTypeName.append(".");
@@ -39,28 +60,45 @@ public class UIMAAlveoTypeNameMapping {
 	private static String sanitizeLower(String source) {
 		/** Convert from a semi-arbitrary source string to a
 		 * string suitable for use in a Java/UIMA-friendly
-		 * fully qualified type name
+		 * fully qualified type name, by removing anything which
+		 * isn't a word character (as for the regex class \w)
 		 */
-		String charsStripped = source.replaceAll("\\W+", "");
-		return prefixNumerals(charsStripped);
+		StringBuilder stripped = new StringBuilder(source.length());
+		for (int i = 0; i < source.length(); i++) {
+			char c = source.charAt(i);
+			if (isWordChar(c))
+				stripped.append(c);
+		}
+		return prefixNumerals(stripped.toString());
 	}
 
 	private static String sanitizeUpperCamel(String source) {
 		/** Convert from a semi-arbitrary source string to a
 		 * Java/UIMA-friendly type name, camel-cased
 		 * like a conventional class by capitalizing
-		 * letters which occur after non-alphanumeric ones
+		 * letters which occur at the start or after non-word
+		 * characters, and removing the non-word characters
 		 */
-		StringBuffer camelCased = new StringBuffer();
-		Matcher m = Pattern.compile("(?:^|\\W+)(\\w)?").matcher(source); // separator should match underscores too
-		while (m.find())
-			m.appendReplacement(camelCased, m.group(1).toUpperCase());
-		m.appendTail(camelCased);
+		StringBuilder camelCased = new StringBuilder(source.length());
+		boolean capitalizeNext = true;
+		for (int i = 0; i < source.length(); i++) {
+			char c = source.charAt(i);
+			if (isWordChar(c)) {
+				camelCased.append(capitalizeNext ? Character.toUpperCase(c) : c);
+				capitalizeNext = false;
+			} else {
+				capitalizeNext = true;
+			}
+		}
 		return prefixNumerals(camelCased.toString());
 	}
 
+	private static boolean isWordChar(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+	}
+
 	private static String prefixNumerals(String s) {
-		if (s.length() > 0 && Character.isDigit(s.codePointAt(0)))
+		if (s.length() > 0 && Character.isDigit(s.charAt(0)))
 			return "N" + s;
 		else
 			return s;
@@ -72,8 +110,18 @@ public class UIMAAlveoTypeNameMapping {
 	 * 	valid even if the semantics is not ideal
 	 */
 	public static String getUriForTypeName(String name) {
-		String[] comps = name.split("\\.");
-		StringBuilder sb = new StringBuilder("http://");
+		String uri = urisForTypeNames.get(name);
+		if (uri == null) {
+			uri = computeUriForTypeName(name);
+			cache(urisForTypeNames, name, uri);
+		}
+		return uri;
+	}
+
+	static String computeUriForTypeName(String name) {
+		String[] comps = split(name, '.');
+		StringBuilder sb = new StringBuilder(name.length() + 8);
+		sb.append("http://");
 		sb.append(comps[comps.length - 2]);
 		for (int i = comps.length - 3; i >= 0; i--) {
 			sb.append(".");
@@ -83,4 +131,30 @@ public class UIMAAlveoTypeNameMapping {
 		sb.append(comps[comps.length - 1]);
 		return sb.toString();
 	}
+
+	/** Split on a single character, with the same results as
+	 * {@link String#split(String)} (so trailing empty strings are removed) */
+	private static String[] split(String s, char sep) {
+		int idx = s.indexOf(sep);
+		if (idx < 0)
+			return new String[] { s };
+		List<String> parts = new ArrayList<String>();
+		int start = 0;
+		while (idx >= 0) {
+			parts.add(s.substring(start, idx));
+			start = idx + 1;
+			idx = s.indexOf(sep, start);
+		}
+		parts.add(s.substring(start));
+		int size = parts.size();
+		while (size > 0 && parts.get(size - 1).isEmpty())
+			size--;
+		return parts.subList(0, size).toArray(new String[size]);
+	}
+
+	private static void cache(ConcurrentMap<String, String> cache, String key, String value) {
+		if (cache.size() >= MAX_CACHE_SIZE)
+			cache.clear(); // we only expect a few hundred types, so this should never really happen
+		cache.put(key, value);
+	}
 }
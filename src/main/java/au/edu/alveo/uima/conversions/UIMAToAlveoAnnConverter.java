@@ -13,6 +13,9 @@ import org.apache.uima.cas.text.AnnotationFS;
  *
  * The converter is also used when reading Alveo annotations and writing UIMA annotations,
  * since the URI conversion is used to establish a mapping between Alveo type URIs and UIMA types
+ *
+ * Converters which can convert many annotations more efficiently than one at a time
+ * should also implement {@link au.edu.alveo.uima.conversions.BatchUIMAToAlveoAnnConverter}
  */
 public interface UIMAToAlveoAnnConverter {
 
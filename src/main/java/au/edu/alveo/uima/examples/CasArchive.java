@@ -0,0 +1,196 @@
+package au.edu.alveo.uima.examples;
+
+import au.edu.alveo.uima.utils.CompleteLineReader;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A directory of documents serialized by {@link XmiWriterCasConsumer} and appended to a
+ * series of large shard files, instead of being written to a file each, which is much
+ * kinder to the filesystem for large collections and easier to copy around.
+ *
+ * Each document in a shard is written as a four-byte big-endian length followed by the
+ * serialized document. The directory also has a tab-separated index, with a line for each
+ * document giving the space-separated URIs of the Alveo items it came from (or "-" for none),
+ * the shard file name, the offset and length of the serialized document within the shard,
+ * and the serialization format, so that documents can be found without reading the shards.
+ * The index is only written once the document has been written, so a shard which was being
+ * written when a process died is still readable up to the last indexed document, and a
+ * partly-written final line of the index is ignored.
+ *
+ * An instance is a writer for the archive, which adds to an existing archive in the same
+ * directory, always starting a new shard. Writes are synchronized, so it can be used from
+ * several threads.
+ */
+class CasArchive {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	static final String INDEX_BASENAME = "index.tsv";
+	private static final String SHARD_PREFIX = "shard_";
+	private static final String SHARD_EXTENSION = ".dat";
+
+	/** The location of a document within the archive */
+	static class Entry {
+		final List<String> itemUris;
+		final String shardName;
+		final long offset;
+		final int length;
+		final String format;
+
+		Entry(List<String> itemUris, String shardName, long offset, int length, String format) {
+			this.itemUris = itemUris;
+			this.shardName = shardName;
+			this.offset = offset;
+			this.length = length;
+			this.format = format;
+		}
+	}
+
+	private final File dir;
+	private final long maxShardBytes;
+	private int nextShardNum;
+	private DataOutputStream shardOut = null;
+	private String shardName;
+	private long shardBytes;
+	private Writer indexWriter = null;
+
+	/**
+	 * @param dir The directory for the shards and index
+	 * @param maxShardBytes The size after which a new shard is started (shards can exceed
+	 *                      this by up to the size of one document)
+	 */
+	CasArchive(File dir, long maxShardBytes) {
+		this.dir = dir;
+		this.maxShardBytes = maxShardBytes;
+		this.nextShardNum = nextUnusedShardNum(dir);
+	}
+
+	static boolean exists(File dir) {
+		return new File(dir, INDEX_BASENAME).exists();
+	}
+
+	private static int nextUnusedShardNum(File dir) {
+		int next = 0;
+		String[] names = dir.list();
+		if (names == null)
+			return next;
+		for (String name : names) {
+			if (!name.startsWith(SHARD_PREFIX) || !name.endsWith(SHARD_EXTENSION))
+				continue;
+			try {
+				next = Math.max(next, Integer.parseInt(name.substring(SHARD_PREFIX.length(),
+						name.length() - SHARD_EXTENSION.length())) + 1);
+			} catch (NumberFormatException e) {
+				// not one of ours
+			}
+		}
+		return next;
+	}
+
+	/** Append a serialized document, returning once it has been written and indexed */
+	synchronized void append(byte[] data, String format, List<String> itemUris) throws IOException {
+		if (shardOut == null || shardBytes >= maxShardBytes)
+			startShard();
+		long offset = shardBytes + 4;
+		shardOut.writeInt(data.length);
+		shardOut.write(data);
+		shardOut.flush();
+		shardBytes = offset + data.length;
+
+		if (indexWriter == null)
+			indexWriter = openIndexForAppend();
+		StringBuilder line = new StringBuilder();
+		for (String itemUri : itemUris) {
+			if (line.length() > 0)
+				line.append(' ');
+			line.append(itemUri);
+		}
+		if (line.length() == 0)
+			line.append('-');
+		line.append('\t').append(shardName).append('\t').append(offset).append('\t').append(data.length)
+				.append('\t').append(format).append('\n');
+		indexWriter.write(line.toString());
+		indexWriter.flush();
+	}
+
+	private Writer openIndexForAppend() throws IOException {
+		File index = new File(dir, INDEX_BASENAME);
+		if (index.exists())
+			CompleteLineReader.truncatePartialLine(index); // as ignored by readIndex()
+		return new OutputStreamWriter(new FileOutputStream(index, true), UTF8);
+	}
+
+	private void startShard() throws IOException {
+		if (shardOut != null)
+			shardOut.close();
+		shardName = String.format("%s%05d%s", SHARD_PREFIX, nextShardNum++, SHARD_EXTENSION);
+		shardOut = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(new File(dir, shardName)), 65536));
+		shardBytes = 0;
+	}
+
+	synchronized void close() throws IOException {
+		try {
+			if (shardOut != null)
+				shardOut.close();
+		} finally {
+			shardOut = null;
+			if (indexWriter != null)
+				indexWriter.close();
+			indexWriter = null;
+		}
+	}
+
+	/** Read the index of the archive in the directory, in the order the documents were written */
+	static List<Entry> readIndex(File dir) throws IOException {
+		List<Entry> entries = new ArrayList<Entry>();
+		// only lines ending in a newline are complete: a partly-written line can look
+		// like a complete one, such as one cut short after the "xmi" of "xmi-gzip"
+		CompleteLineReader reader = new CompleteLineReader(new InputStreamReader(
+				new FileInputStream(new File(dir, INDEX_BASENAME)), UTF8));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t");
+				if (fields.length != 5 || !isKnownFormat(fields[4]))
+					continue; // left by a writer which terminated a partly-written line
+				List<String> itemUris = fields[0].equals("-") ? new ArrayList<String>()
+						: Arrays.asList(fields[0].split(" "));
+				entries.add(new Entry(itemUris, fields[1], Long.parseLong(fields[2]),
+						Integer.parseInt(fields[3]), fields[4]));
+			}
+		} finally {
+			reader.close();
+		}
+		return entries;
+	}
+
+	private static boolean isKnownFormat(String format) {
+		try {
+			CasFileFormats.checkFormat(format);
+			return true;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	/** Read a serialized document from an open shard file */
+	static byte[] readEntry(RandomAccessFile shard, Entry entry) throws IOException {
+		byte[] data = new byte[entry.length];
+		shard.seek(entry.offset);
+		shard.readFully(data);
+		return data;
+	}
+}
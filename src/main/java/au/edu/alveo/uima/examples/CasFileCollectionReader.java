@@ -0,0 +1,172 @@
+package au.edu.alveo.uima.examples;
+
+import org.apache.uima.UIMAFramework;
+import org.apache.uima.UimaContext;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.collection.CollectionException;
+import org.apache.uima.collection.CollectionReaderDescription;
+import org.apache.uima.fit.component.CasCollectionReader_ImplBase;
+import org.apache.uima.fit.descriptor.ConfigurationParameter;
+import org.apache.uima.fit.factory.CollectionReaderFactory;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.InvalidXMLException;
+import org.apache.uima.util.Progress;
+import org.apache.uima.util.ProgressImpl;
+import org.apache.uima.util.XMLInputSource;
+import org.xml.sax.SAXException;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A collection reader which reads back the documents written by {@link XmiWriterCasConsumer},
+ * in any of its output formats, so that the results of a (slow) run against an Alveo server
+ * can be processed again without contacting the server.
+ *
+ * Documents which were appended to an archive (see {@link CasArchive}) are read in the
+ * order they were written, using the archive's index.
+ *
+ * The reader needs the type system which was written with the documents, so it should be
+ * created with {@link #createDescription(File, Object...)}, which loads it from the directory.
+ */
+public class CasFileCollectionReader extends CasCollectionReader_ImplBase {
+	public static final String PARAM_INPUTDIR = "InputDirectory";
+
+	@ConfigurationParameter(name = PARAM_INPUTDIR, mandatory = true,
+			description = "The output directory of XmiWriterCasConsumer, containing typesystem.xml and " +
+					"the 'docs' directory")
+	private File inputDir;
+
+	private File docDir;
+	private List<File> docFiles = null;
+	private List<CasArchive.Entry> archiveEntries = null;
+	private int numDocs;
+	private int nextDoc = 0;
+	private RandomAccessFile currentShard = null;
+	private String currentShardName = null;
+
+	/**
+	 * Create a description of a reader for the documents in the supplied directory,
+	 * using the type system stored there
+	 */
+	public static CollectionReaderDescription createDescription(File inputDir, Object... confData)
+			throws ResourceInitializationException {
+		TypeSystemDescription tsd;
+		try {
+			tsd = UIMAFramework.getXMLParser().parseTypeSystemDescription(
+					new XMLInputSource(new File(inputDir, XmiWriterCasConsumer.TYPE_SYSTEM_BASENAME)));
+		} catch (IOException e) {
+			throw new ResourceInitializationException(e);
+		} catch (InvalidXMLException e) {
+			throw new ResourceInitializationException(e);
+		}
+		List<Object> allConfData = new ArrayList<Object>(Arrays.<Object>asList(PARAM_INPUTDIR, inputDir.getPath()));
+		allConfData.addAll(Arrays.asList(confData));
+		return CollectionReaderFactory.createReaderDescription(CasFileCollectionReader.class, tsd,
+				allConfData.toArray());
+	}
+
+	@Override
+	public void initialize(UimaContext context) throws ResourceInitializationException {
+		super.initialize(context);
+		docDir = new File(inputDir, XmiWriterCasConsumer.DOCS_BASENAME);
+		if (CasArchive.exists(docDir)) {
+			try {
+				archiveEntries = CasArchive.readIndex(docDir);
+			} catch (IOException e) {
+				throw new ResourceInitializationException(e);
+			}
+			numDocs = archiveEntries.size();
+			return;
+		}
+		String[] names = docDir.list();
+		if (names == null)
+			throw new ResourceInitializationException(new IOException("No documents directory at " + docDir));
+		docFiles = new ArrayList<File>(names.length);
+		for (String name : names) {
+			if (name.startsWith("doc_") && CasFileFormats.formatOfFile(name) != null)
+				docFiles.add(new File(docDir, name));
+		}
+		// sort by number rather than name, since the width of the numbers has changed over time
+		Collections.sort(docFiles, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				return Long.valueOf(docNumber(f1)).compareTo(docNumber(f2));
+			}
+		});
+		numDocs = docFiles.size();
+	}
+
+	private static long docNumber(File docFile) {
+		String name = docFile.getName();
+		int end = 4;
+		while (end < name.length() && Character.isDigit(name.charAt(end)))
+			end++;
+		try {
+			return Long.parseLong(name.substring(4, end));
+		} catch (NumberFormatException e) {
+			return Long.MAX_VALUE;
+		}
+	}
+
+	@Override
+	public boolean hasNext() throws IOException, CollectionException {
+		return nextDoc < numDocs;
+	}
+
+	@Override
+	public void getNext(CAS cas) throws IOException, CollectionException {
+		if (archiveEntries != null) {
+			getNextFromArchive(cas, archiveEntries.get(nextDoc++));
+			return;
+		}
+		File docFile = docFiles.get(nextDoc++);
+		InputStream in = new BufferedInputStream(new FileInputStream(docFile), 65536);
+		try {
+			CasFileFormats.deserialize(cas, in, CasFileFormats.formatOfFile(docFile.getName()));
+		} catch (SAXException e) {
+			throw new CollectionException(e);
+		} finally {
+			in.close();
+		}
+	}
+
+	private void getNextFromArchive(CAS cas, CasArchive.Entry entry) throws IOException, CollectionException {
+		// the entries are in the order they were written, so we generally read each shard sequentially
+		if (!entry.shardName.equals(currentShardName)) {
+			if (currentShard != null)
+				currentShard.close();
+			currentShard = new RandomAccessFile(new File(docDir, entry.shardName), "r");
+			currentShardName = entry.shardName;
+		}
+		byte[] data = CasArchive.readEntry(currentShard, entry);
+		try {
+			CasFileFormats.deserialize(cas, new ByteArrayInputStream(data), entry.format);
+		} catch (SAXException e) {
+			throw new CollectionException(e);
+		}
+	}
+
+	public Progress[] getProgress() {
+		return new Progress[] { new ProgressImpl(nextDoc, numDocs, Progress.ENTITIES) };
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (currentShard != null)
+			currentShard.close();
+		currentShard = null;
+		currentShardName = null;
+	}
+}
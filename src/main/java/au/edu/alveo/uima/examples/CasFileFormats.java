@@ -0,0 +1,93 @@
+package au.edu.alveo.uima.examples;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.impl.Serialization;
+import org.apache.uima.cas.impl.XmiCasDeserializer;
+import org.apache.uima.cas.impl.XmiCasSerializer;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.apache.uima.util.XMLSerializer;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The formats which {@link XmiWriterCasConsumer} can write documents in and
+ * {@link CasFileCollectionReader} can read them back from.
+ *
+ * The binary format is UIMA's compressed form 6 serialization, which does not include the
+ * type system, so it can only be read back with the type system written alongside it
+ * (<code>typesystem.xml</code> in the output directory).
+ */
+class CasFileFormats {
+	static final String XMI = "xmi";
+	static final String XMI_GZIP = "xmi-gzip";
+	static final String BINARY = "binary";
+
+	private static final String XMI_EXTENSION = ".xml";
+	private static final String XMI_GZIP_EXTENSION = ".xml.gz";
+	private static final String BINARY_EXTENSION = ".bcas";
+
+	/** Check that the format is one we know, throwing an IllegalArgumentException if not */
+	static void checkFormat(String format) {
+		extension(format);
+	}
+
+	static String extension(String format) {
+		if (XMI.equals(format))
+			return XMI_EXTENSION;
+		if (XMI_GZIP.equals(format))
+			return XMI_GZIP_EXTENSION;
+		if (BINARY.equals(format))
+			return BINARY_EXTENSION;
+		throw new IllegalArgumentException("Unknown output format '" + format + "'; should be one of " +
+				XMI + ", " + XMI_GZIP + " or " + BINARY);
+	}
+
+	/** The format of a file written by {@link XmiWriterCasConsumer}, or <code>null</code> if it isn't one */
+	static String formatOfFile(String fileName) {
+		// check the longest extension first, since it overlaps with the plain XMI one
+		if (fileName.endsWith(XMI_GZIP_EXTENSION))
+			return XMI_GZIP;
+		if (fileName.endsWith(XMI_EXTENSION))
+			return XMI;
+		if (fileName.endsWith(BINARY_EXTENSION))
+			return BINARY;
+		return null;
+	}
+
+	static void serialize(CAS cas, OutputStream out, String format) throws IOException, SAXException {
+		if (BINARY.equals(format)) {
+			try {
+				Serialization.serializeWithCompression(cas, out, cas.getTypeSystem());
+			} catch (ResourceInitializationException e) {
+				throw new IOException(e);
+			}
+		} else if (XMI_GZIP.equals(format)) {
+			GZIPOutputStream gzOut = new GZIPOutputStream(out, 65536);
+			serializeXmi(cas, gzOut);
+			gzOut.finish();
+		} else {
+			serializeXmi(cas, out);
+		}
+	}
+
+	private static void serializeXmi(CAS cas, OutputStream out) throws SAXException {
+		XmiCasSerializer ser = new XmiCasSerializer(cas.getTypeSystem());
+		XMLSerializer xmlSer = new XMLSerializer(out, false);
+		ser.serialize(cas, xmlSer.getContentHandler());
+	}
+
+	/** Read a document into the (empty) CAS, which must have the type system it was written with */
+	static void deserialize(CAS cas, InputStream in, String format) throws IOException, SAXException {
+		if (BINARY.equals(format))
+			Serialization.deserializeCAS(cas, in);
+		else if (XMI_GZIP.equals(format))
+			XmiCasDeserializer.deserialize(new GZIPInputStream(in, 65536), cas);
+		else
+			XmiCasDeserializer.deserialize(in, cas);
+	}
+}
@@ -3,6 +3,7 @@ package au.edu.alveo.uima.examples;
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import au.edu.alveo.uima.ItemListCollectionReader;
+import au.edu.alveo.uima.utils.ParallelPipeline;
 import org.apache.uima.UIMAException;
 import org.apache.uima.analysis_engine.AnalysisEngineDescription;
 import org.apache.uima.collection.CollectionReaderDescription;
@@ -15,6 +16,9 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class ItemListReaderExample {
 	protected static class CLParams {
@@ -41,6 +45,34 @@ public class ItemListReaderExample {
 				"The item list ID to convert to XMI")
 		private String itemListId;
 
+		@Parameter(names = { "-t", "--threads"}, required = false, description =
+				"The number of threads processing documents in parallel with reading them " +
+						"(if 0, everything happens on a single thread)")
+		private int threads = 0;
+
+		@Parameter(names = { "--shard-index"}, required = false, description =
+				"The shard of the item list to convert, when splitting it between several processes")
+		private int shardIndex = 0;
+
+		@Parameter(names = { "--shard-count"}, required = false, description =
+				"The number of shards the item list is split into")
+		private int shardCount = 1;
+
+		@Parameter(names = { "--checkpoint"}, required = false, description =
+				"If provided, a file recording which items have been written, so that an interrupted " +
+						"conversion can be resumed by running the same command again")
+		private String checkpointFile = null;
+
+		@Parameter(names = { "-f", "--format"}, required = false, description =
+				"The format to write the documents in: xmi, xmi-gzip or binary (UIMA's compressed " +
+						"binary format, which can be read back with CasFileCollectionReader)")
+		private String format = XmiWriterCasConsumer.OUTPUT_FORMAT_XMI;
+
+		@Parameter(names = { "--archive-shard-mb"}, required = false, description =
+				"If greater than zero, append the documents to shard files of about this many " +
+						"megabytes, with an index, instead of writing a file for each document")
+		private int archiveShardMegabytes = 0;
+
 	}
 
 	private static String usage = String.format("Instantiate a basic pipeline " +
@@ -61,20 +93,35 @@ public class ItemListReaderExample {
 			jcom.usage();
 			return;
 		}
-		runPipeline(params.serverUrl, params.apiKey, params.xmiDir, params.itemListId, params.descriptorDir);
+		runPipeline(params.serverUrl, params.apiKey, params.xmiDir, params.itemListId, params.descriptorDir,
+				params.threads, params.shardIndex, params.shardCount, params.checkpointFile, params.format,
+				params.archiveShardMegabytes);
 
 	}
 
 	private static void runPipeline(String serverUrl, String apiKey, String xmiDir, String itemListId,
-			String descriptorDir)
-			throws UIMAException, IOException, SAXException {
-		CollectionReaderDescription reader = ItemListCollectionReader.createDescription(
+			String descriptorDir, int threads, int shardIndex, int shardCount, String checkpointFile,
+			String format, int archiveShardMegabytes) throws UIMAException, IOException, SAXException {
+		if (shardCount > 1) // each shard numbers its documents from zero, so they can't share a directory
+			xmiDir = shardOutputDir(xmiDir, shardIndex).getPath();
+		List<Object> readerConf = new ArrayList<Object>(Arrays.<Object>asList(
 				ItemListCollectionReader.PARAM_ALVEO_BASE_URL, serverUrl,
 				ItemListCollectionReader.PARAM_ALVEO_API_KEY, apiKey,
 				ItemListCollectionReader.PARAM_ALVEO_ITEM_LIST_ID, itemListId,
-				ItemListCollectionReader.PARAM_INCLUDE_RAW_DOCS, false);
+				ItemListCollectionReader.PARAM_INCLUDE_RAW_DOCS, false,
+				ItemListCollectionReader.PARAM_SHARD_INDEX, shardIndex,
+				ItemListCollectionReader.PARAM_SHARD_COUNT, shardCount));
+		List<Object> writerConf = new ArrayList<Object>(Arrays.<Object>asList(
+				XmiWriterCasConsumer.PARAM_OUTPUTDIR, xmiDir,
+				XmiWriterCasConsumer.PARAM_OUTPUT_FORMAT, format,
+				XmiWriterCasConsumer.PARAM_ARCHIVE_SHARD_MEGABYTES, archiveShardMegabytes));
+		if (checkpointFile != null) { // null values can't be passed to uimaFIT
+			readerConf.addAll(Arrays.<Object>asList(ItemListCollectionReader.PARAM_CHECKPOINT_FILE, checkpointFile));
+			writerConf.addAll(Arrays.<Object>asList(XmiWriterCasConsumer.PARAM_CHECKPOINT_FILE, checkpointFile));
+		}
+		CollectionReaderDescription reader = ItemListCollectionReader.createDescription(readerConf.toArray());
 		AnalysisEngineDescription casWriter = AnalysisEngineFactory.createEngineDescription(
-				XmiWriterCasConsumer.class, XmiWriterCasConsumer.PARAM_OUTPUTDIR, xmiDir);
+				XmiWriterCasConsumer.class, writerConf.toArray());
 		casWriter.getAnalysisEngineMetaData().setTypeSystem(reader.getCollectionReaderMetaData().getTypeSystem());
 		if (descriptorDir != null) {
 			OutputStream readerOS = new BufferedOutputStream(new FileOutputStream(
@@ -87,7 +134,15 @@ public class ItemListReaderExample {
 					new File(descriptorDir, "ItemListToXmiAE.xml")));
 			casWriter.toXML(cwOS);
 		}
-		SimplePipeline.runPipeline(reader, casWriter);
+		if (threads > 0)
+			ParallelPipeline.runPipeline(reader, casWriter, threads);
+		else
+			SimplePipeline.runPipeline(reader, casWriter);
+
+	}
 
+	/** The directory within <code>outputDir</code> where the given shard is written */
+	static File shardOutputDir(String outputDir, int shardIndex) {
+		return new File(outputDir, "shard-" + shardIndex);
 	}
 }
@@ -20,30 +20,36 @@ package au.edu.alveo.uima.examples;
  */
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
 
+import au.edu.alveo.uima.ItemCheckpoint;
+import au.edu.alveo.uima.types.AlveoItemSource;
+import au.edu.alveo.uima.utils.BoundedExecutor;
 import org.apache.uima.UIMAFramework;
 import org.apache.uima.UimaContext;
 import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.CASException;
 import org.apache.uima.cas.CASRuntimeException;
-import org.apache.uima.cas.impl.XmiCasSerializer;
 import org.apache.uima.collection.CasConsumerDescription;
 import org.apache.uima.fit.component.CasConsumer_ImplBase;
 import org.apache.uima.fit.descriptor.ConfigurationParameter;
+import org.apache.uima.fit.util.JCasUtil;
 import org.apache.uima.jcas.JCas;
 import org.apache.uima.resource.ResourceInitializationException;
 import org.apache.uima.resource.ResourceProcessException;
 import org.apache.uima.util.InvalidXMLException;
 import org.apache.uima.util.TypeSystemUtil;
 import org.apache.uima.util.XMLInputSource;
-import org.apache.uima.util.XMLSerializer;
 import org.xml.sax.SAXException;
 
 /**
@@ -57,6 +63,15 @@ import org.xml.sax.SAXException;
  * <li><code>OutputDirectory</code> - path to directory into which output files
  * will be written</li>
  * </ul>
+ * With <code>writerThreads</code> set, each CAS is serialized to memory on the calling
+ * thread and the files are written by a pool of background threads, so that slow disks
+ * don't hold up the pipeline.
+ * <p>
+ * Despite the name, the documents can also be written as gzipped XMI or in UIMA's compressed
+ * binary format (set <code>outputFormat</code>), which are much smaller and faster to read
+ * back; {@link CasFileCollectionReader} reads the output in any of the formats. For large
+ * collections, setting <code>archiveShardMegabytes</code> appends the documents to a few large
+ * shard files with an index (see {@link CasArchive}) instead of writing a file for each.
  */
 public class XmiWriterCasConsumer extends CasConsumer_ImplBase {
 	/**
@@ -64,8 +79,8 @@ public class XmiWriterCasConsumer extends CasConsumer_ImplBase {
 	 * directory into which the output files will be written.
 	 */
 	private boolean typeSystemWritten = false;
-	private static final String TYPE_SYSTEM_BASENAME = "typesystem.xml";
-	private static final String DOCS_BASENAME = "docs";
+	static final String TYPE_SYSTEM_BASENAME = "typesystem.xml";
+	static final String DOCS_BASENAME = "docs";
 
 	private File typeSystemXml() {
 		return new File(mOutputDir, TYPE_SYSTEM_BASENAME);
@@ -81,13 +96,97 @@ public class XmiWriterCasConsumer extends CasConsumer_ImplBase {
 	@ConfigurationParameter(name = PARAM_OUTPUTDIR, mandatory = true)
 	private File mOutputDir;
 
+	public static final String PARAM_CHECKPOINT_FILE = "checkpointFile";
+
+	@ConfigurationParameter(name = PARAM_CHECKPOINT_FILE, mandatory = false,
+			description = "If set, a file to which the URI of each Alveo item is appended once it has " +
+					"been written, for resuming with ItemListCollectionReader")
+	private File checkpointFile = null;
+
+	public static final String PARAM_WRITER_THREADS = "writerThreads";
+
+	@ConfigurationParameter(name = PARAM_WRITER_THREADS, mandatory = false,
+			description = "Number of background threads writing the serialized documents to disk. If zero " +
+					"(the default), each document is written before process() returns; otherwise documents " +
+					"are serialized in memory and written in the background, and all writes are complete " +
+					"when collectionProcessComplete() returns")
+	private int writerThreads = 0;
+
+	public static final String PARAM_WRITE_QUEUE_SIZE = "writeQueueSize";
+
+	@ConfigurationParameter(name = PARAM_WRITE_QUEUE_SIZE, mandatory = false,
+			description = "Maximum number of serialized documents waiting to be written when writing in the " +
+					"background, beyond which process() blocks (this bounds the memory used)")
+	private int writeQueueSize = 16;
+
+	public static final String PARAM_OUTPUT_FORMAT = "outputFormat";
+
+	public static final String OUTPUT_FORMAT_XMI = CasFileFormats.XMI;
+	public static final String OUTPUT_FORMAT_XMI_GZIP = CasFileFormats.XMI_GZIP;
+	public static final String OUTPUT_FORMAT_BINARY = CasFileFormats.BINARY;
+
+	@ConfigurationParameter(name = PARAM_OUTPUT_FORMAT, mandatory = false,
+			description = "The format of the document files: '" + OUTPUT_FORMAT_XMI + "' (the default), '" +
+					OUTPUT_FORMAT_XMI_GZIP + "' for gzipped XMI, or '" + OUTPUT_FORMAT_BINARY + "' for UIMA's " +
+					"compressed binary serialization, which needs the type system written alongside it to be read")
+	private String outputFormat = OUTPUT_FORMAT_XMI;
+
+	public static final String PARAM_ARCHIVE_SHARD_MEGABYTES = "archiveShardMegabytes";
+
+	@ConfigurationParameter(name = PARAM_ARCHIVE_SHARD_MEGABYTES, mandatory = false,
+			description = "If greater than zero, the documents are appended to shard files in the output " +
+					"'docs' directory, with a new shard started once this size is reached, along with an " +
+					"index of where each item is stored, instead of being written to a file each")
+	private int archiveShardMegabytes = 0;
+
+	private ItemCheckpoint checkpoint = null;
+	private BoundedExecutor writeExecutor = null;
+	private CasArchive archive = null;
+
 	private int mDocNum;
 
 	public void initialize(UimaContext context) throws ResourceInitializationException {
 	    super.initialize(context);
+		try {
+			CasFileFormats.checkFormat(outputFormat);
+		} catch (IllegalArgumentException e) {
+			throw new ResourceInitializationException(e);
+		}
 		mDocNum = 0;
 		if (!docDir().exists())
 			docDir().mkdirs();
+		if (checkpointFile != null) {
+			try {
+				checkpoint = ItemCheckpoint.open(checkpointFile);
+			} catch (IOException e) {
+				throw new ResourceInitializationException(e);
+			}
+			// when resuming, don't overwrite the documents written before
+			mDocNum = nextUnusedDocNum();
+		}
+		if (archiveShardMegabytes > 0)
+			archive = new CasArchive(docDir(), archiveShardMegabytes * 1024L * 1024L);
+		if (writerThreads > 0)
+			writeExecutor = new BoundedExecutor("xmi-writer", writerThreads, writeQueueSize);
+	}
+
+	private int nextUnusedDocNum() {
+		int next = 0;
+		String[] names = docDir().list();
+		if (names == null)
+			return next;
+		for (String name : names) {
+			String format = CasFileFormats.formatOfFile(name);
+			if (!name.startsWith("doc_") || format == null)
+				continue;
+			try {
+				int extLength = CasFileFormats.extension(format).length();
+				next = Math.max(next, Integer.parseInt(name.substring(4, name.length() - extLength)) + 1);
+			} catch (NumberFormatException e) {
+				// not one of ours
+			}
+		}
+		return next;
 	}
 
 	/**
@@ -114,22 +213,112 @@ public class XmiWriterCasConsumer extends CasConsumer_ImplBase {
 			throw new AnalysisEngineProcessException(e);
 		}
 
-		File outFile = new File(docDir(), String.format("doc_%05d.xml", mDocNum++)); // Jira
+		final File outFile = archive != null ? null : new File(docDir(), String.format("doc_%08d", mDocNum++)
+				+ CasFileFormats.extension(outputFormat)); // Jira
 																		// UIMA-629
+		final List<String> itemUris = new ArrayList<String>(1);
+		if (checkpoint != null || archive != null) {
+			for (AlveoItemSource itemSource : JCasUtil.select(jcas, AlveoItemSource.class))
+				itemUris.add(itemSource.getSourceUri());
+		}
 		// serialize XCAS and write to output file
 		try {
-			writeXmi(jcas.getCas(), outFile, modelFileName);
+			if (!typeSystemWritten) {
+				writeTypeSystem(aCAS);
+				typeSystemWritten = true;
+			}
+			if (writeExecutor == null && archive == null) {
+				writeCas(jcas.getCas(), outFile, modelFileName);
+				markCompleted(itemUris);
+				return;
+			}
+			// the CAS is reused as soon as we return, so it must be serialized now,
+			// but writing the bytes to disk can happen later
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream(65536);
+			CasFileFormats.serialize(aCAS, buffer, outputFormat);
+			final byte[] serialized = buffer.toByteArray();
+			if (writeExecutor == null) {
+				store(outFile, serialized, itemUris);
+				return;
+			}
+			writeExecutor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					store(outFile, serialized, itemUris);
+					return null;
+				}
+			});
 		} catch (IOException e) {
 			throw new AnalysisEngineProcessException(e);
 		} catch (SAXException e) {
 			throw new AnalysisEngineProcessException(e);
 		} catch (CASException e) {
 			throw new AnalysisEngineProcessException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AnalysisEngineProcessException(e);
+		}
+	}
+
+	/** Write the serialized CAS to its own file or to the archive */
+	private void store(File outFile, byte[] serialized, List<String> itemUris) throws IOException {
+		if (archive != null)
+			archive.append(serialized, outputFormat, itemUris);
+		else
+			writeFile(outFile, serialized);
+		markCompleted(itemUris);
+	}
+
+	private void markCompleted(List<String> itemUris) throws IOException {
+		if (checkpoint == null)
+			return;
+		for (String itemUri : itemUris)
+			checkpoint.markCompleted(itemUri);
+	}
+
+	@Override
+	public void collectionProcessComplete() throws AnalysisEngineProcessException {
+		super.collectionProcessComplete();
+		if (writeExecutor != null) {
+			List<Exception> failures;
+			try {
+				failures = writeExecutor.awaitCompletion();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new AnalysisEngineProcessException(e);
+			}
+			if (!failures.isEmpty())
+				throw new AnalysisEngineProcessException(failures.get(0));
+		}
+		if (archive != null) {
+			try {
+				archive.close();
+			} catch (IOException e) {
+				throw new AnalysisEngineProcessException(e);
+			}
+		}
+	}
+
+	@Override
+	public void destroy() {
+		if (writeExecutor != null)
+			writeExecutor.shutdown();
+		if (archive != null) {
+			try {
+				archive.close();
+			} catch (IOException e) {
+				// everything which was indexed has already been flushed
+			}
 		}
+		if (checkpoint != null) {
+			checkpoint.release();
+			checkpoint = null;
+		}
+		super.destroy();
 	}
 
 	/**
-	 * Serialize a CAS to a file in XMI format
+	 * Serialize a CAS to a file in the configured format
 	 * 
 	 * @param aCas
 	 *            CAS to serialize
@@ -140,18 +329,13 @@ public class XmiWriterCasConsumer extends CasConsumer_ImplBase {
 	 * 
 	 * @throws ResourceProcessException
 	 */
-	private void writeXmi(CAS aCas, File name, String modelFileName) throws IOException,
+	private void writeCas(CAS aCas, File name, String modelFileName) throws IOException,
 			SAXException, CASException {
-		if (!typeSystemWritten)
-			writeTypeSystem(aCas);
-		FileOutputStream out = null;
+		OutputStream out = null;
 
 		try {
-			// write XMI
-			out = new FileOutputStream(name);
-			XmiCasSerializer ser = new XmiCasSerializer(aCas.getTypeSystem());
-			XMLSerializer xmlSer = new XMLSerializer(out, false);
-			ser.serialize(aCas, xmlSer.getContentHandler());
+			out = new BufferedOutputStream(new FileOutputStream(name), 65536);
+			CasFileFormats.serialize(aCas, out, outputFormat);
 		} finally {
 			if (out != null) {
 				out.close();
@@ -159,6 +343,15 @@ public class XmiWriterCasConsumer extends CasConsumer_ImplBase {
 		}
 	}
 
+	private static void writeFile(File name, byte[] data) throws IOException {
+		FileOutputStream out = new FileOutputStream(name);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+	}
+
 	/**
 	 * Parses and returns the descriptor for this collection reader. The
 	 * descriptor is stored in the uima.jar file and located using the
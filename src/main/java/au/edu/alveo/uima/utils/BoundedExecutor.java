@@ -0,0 +1,86 @@
+package au.edu.alveo.uima.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs tasks on a fixed pool of background threads, with a bounded number of tasks
+ * waiting or running at any one time.
+ *
+ * Submitting a task when the bound has been reached blocks the submitting thread until
+ * a slot becomes free, which applies back-pressure to a UIMA pipeline producing work
+ * faster than the background threads can complete it. Exceptions thrown by tasks are
+ * logged and collected so that they can be reported once all work has been completed,
+ * for instance from <code>collectionProcessComplete()</code>.
+ */
+public class BoundedExecutor {
+	private static final Logger LOG = LoggerFactory.getLogger(BoundedExecutor.class);
+
+	private final ExecutorService executor;
+	private final Semaphore slots;
+	private final int maxOutstanding;
+	private final List<Exception> failures = new ArrayList<Exception>();
+
+	/**
+	 * @param poolName A short name for the pool, used to name the threads
+	 * @param numThreads The number of background threads
+	 * @param queueSize The number of tasks which may be waiting for a thread, in addition to those running
+	 */
+	public BoundedExecutor(String poolName, int numThreads, int queueSize) {
+		this.maxOutstanding = numThreads + Math.max(queueSize, 0);
+		this.slots = new Semaphore(maxOutstanding);
+		this.executor = Executors.newFixedThreadPool(numThreads, new DaemonThreadFactory(poolName));
+	}
+
+	/** Submit a task, blocking until there is room for it if too many tasks are outstanding */
+	public void submit(final Callable<?> task) throws InterruptedException {
+		slots.acquire();
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						task.call();
+					} catch (Exception e) {
+						LOG.error("Background task failed", e);
+						synchronized (failures) {
+							failures.add(e);
+						}
+					} finally {
+						slots.release();
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			slots.release(); // rejected; most likely we have been shut down
+			throw e;
+		}
+	}
+
+	/** Wait until all submitted tasks have completed.
+	 *
+	 * @return the exceptions thrown by any tasks which failed since the last call
+	 *   to this method, in the order they occurred
+	 */
+	public List<Exception> awaitCompletion() throws InterruptedException {
+		slots.acquire(maxOutstanding);
+		slots.release(maxOutstanding);
+		synchronized (failures) {
+			List<Exception> result = new ArrayList<Exception>(failures);
+			failures.clear();
+			return result;
+		}
+	}
+
+	/** Stop the background threads, abandoning any tasks which have not yet started */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,75 @@
+package au.edu.alveo.uima.utils;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+
+/**
+ * Reads the lines of a file which is appended to a line at a time, such as a checkpoint or
+ * an index, ignoring a final line which has no terminating newline.
+ *
+ * Such a line was still being written when the writing process died, so it may be any
+ * prefix of the intended line, including one which looks like a complete line, and it
+ * can't be trusted. Writers should call {@link #truncatePartialLine(File)} before appending,
+ * so that it isn't completed by the newline of the next line written.
+ */
+public class CompleteLineReader implements Closeable {
+	private final BufferedReader reader;
+	private final StringBuilder line = new StringBuilder();
+
+	public CompleteLineReader(Reader reader) {
+		this.reader = new BufferedReader(reader, 65536);
+	}
+
+	/** Read the next line, without its line terminator (a newline, optionally preceded by a
+	 * carriage return), or return <code>null</code> if there are no more complete lines */
+	public String readLine() throws IOException {
+		line.setLength(0);
+		int c;
+		while ((c = reader.read()) >= 0) {
+			if (c == '\n') {
+				int len = line.length();
+				if (len > 0 && line.charAt(len - 1) == '\r')
+					line.setLength(len - 1);
+				return line.toString();
+			}
+			line.append((char) c);
+		}
+		return null;
+	}
+
+	/** Remove any partly-written final line from the file, which must be in an encoding
+	 * such as UTF-8 where a newline byte is always a newline */
+	public static void truncatePartialLine(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			byte[] buf = new byte[8192];
+			long end = raf.length();
+			while (end > 0) {
+				int len = (int) Math.min(buf.length, end);
+				raf.seek(end - len);
+				raf.readFully(buf, 0, len);
+				for (int i = len - 1; i >= 0; i--) {
+					if (buf[i] == '\n') {
+						long lineEnd = end - len + i + 1;
+						if (lineEnd < raf.length())
+							raf.setLength(lineEnd);
+						return;
+					}
+				}
+				end -= len;
+			}
+			raf.setLength(0);
+		} finally {
+			raf.close();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
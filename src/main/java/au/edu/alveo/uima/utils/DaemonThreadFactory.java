@@ -0,0 +1,30 @@
+package au.edu.alveo.uima.utils;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread factory for the background worker pools used by the Alveo UIMA components.
+ *
+ * Threads are given a recognisable name (which makes thread dumps from a running pipeline
+ * much easier to interpret) and are marked as daemon threads, so that a pipeline which
+ * fails without cleanly closing its components does not prevent the JVM from exiting.
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+	private final String namePrefix;
+	private final AtomicInteger threadNum = new AtomicInteger(0);
+
+	/**
+	 * @param poolName A short name for the pool, used as the prefix of the thread names
+	 */
+	public DaemonThreadFactory(String poolName) {
+		this.namePrefix = poolName + "-";
+	}
+
+	@Override
+	public Thread newThread(Runnable r) {
+		Thread t = new Thread(r, namePrefix + threadNum.incrementAndGet());
+		t.setDaemon(true);
+		return t;
+	}
+}
@@ -0,0 +1,300 @@
+package au.edu.alveo.uima.utils;
+
+import org.apache.uima.UIMAException;
+import org.apache.uima.UIMAFramework;
+import org.apache.uima.analysis_engine.AnalysisEngine;
+import org.apache.uima.analysis_engine.AnalysisEngineDescription;
+import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.collection.CollectionReader;
+import org.apache.uima.collection.CollectionReaderDescription;
+import org.apache.uima.fit.factory.AnalysisEngineFactory;
+import org.apache.uima.resource.CasDefinition;
+import org.apache.uima.resource.metadata.ProcessingResourceMetaData;
+import org.apache.uima.util.CasPool;
+import org.apache.uima.util.Progress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a pipeline with the analysis engines on several threads, as a multi-threaded
+ * alternative to uimaFIT's <code>SimplePipeline</code>.
+ *
+ * The collection reader runs on the calling thread, filling CASes from a pool. Each worker
+ * thread has its own instance of the (aggregated) processing engines, so these need not be
+ * thread-safe, and takes filled CASes from a queue to process them. The consumer (such as
+ * {@link au.edu.alveo.uima.examples.XmiWriterCasConsumer} or
+ * {@link au.edu.alveo.uima.ItemAnnotationUploader}) is a single instance shared by the
+ * workers, which is only called by one worker at a time, since consumers generally maintain
+ * state across documents. Documents may reach the consumer in a different order from the
+ * one they were read in.
+ *
+ * If processing any document fails, no further documents are read, the documents already
+ * read are discarded, and the failure is rethrown once the workers have stopped. Progress
+ * (including the reader's own progress figures) is logged at regular intervals.
+ */
+public class ParallelPipeline {
+	private static final Logger LOG = LoggerFactory.getLogger(ParallelPipeline.class);
+	private static final long PROGRESS_INTERVAL_MILLIS = 30000;
+
+	private final CollectionReaderDescription readerDesc;
+	private final List<AnalysisEngineDescription> processorDescs;
+	private final AnalysisEngineDescription consumerDesc;
+	private final int numWorkers;
+
+	private final AtomicLong numProcessed = new AtomicLong();
+	private final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+	/**
+	 * @param readerDesc The collection reader
+	 * @param processorDescs The analysis engines to run on each document in parallel (may be empty)
+	 * @param consumerDesc The consumer to run after the analysis engines, or <code>null</code>
+	 * @param numWorkers The number of worker threads
+	 */
+	public ParallelPipeline(CollectionReaderDescription readerDesc, List<AnalysisEngineDescription> processorDescs,
+			AnalysisEngineDescription consumerDesc, int numWorkers) {
+		this.readerDesc = readerDesc;
+		this.processorDescs = processorDescs;
+		this.consumerDesc = consumerDesc;
+		this.numWorkers = Math.max(numWorkers, 1);
+	}
+
+	/** Run a pipeline which consists of just a reader and a consumer, with the consumer
+	 * running on a separate thread from the reader */
+	public static void runPipeline(CollectionReaderDescription readerDesc, AnalysisEngineDescription consumerDesc,
+			int numWorkers) throws UIMAException, IOException {
+		new ParallelPipeline(readerDesc, new ArrayList<AnalysisEngineDescription>(), consumerDesc, numWorkers).run();
+	}
+
+	public static void runPipeline(CollectionReaderDescription readerDesc, List<AnalysisEngineDescription> processorDescs,
+			AnalysisEngineDescription consumerDesc, int numWorkers) throws UIMAException, IOException {
+		new ParallelPipeline(readerDesc, processorDescs, consumerDesc, numWorkers).run();
+	}
+
+	/** Process all documents from the reader, returning once they have all been consumed */
+	public void run() throws UIMAException, IOException {
+		CollectionReader reader = UIMAFramework.produceCollectionReader(readerDesc);
+		List<AnalysisEngine> processors = new ArrayList<AnalysisEngine>(numWorkers);
+		AnalysisEngine consumer = null;
+		ExecutorService workers = null;
+		try {
+			List<ProcessingResourceMetaData> metaData = new ArrayList<ProcessingResourceMetaData>();
+			metaData.add(reader.getProcessingResourceMetaData());
+			if (!processorDescs.isEmpty()) {
+				AnalysisEngineDescription aggregate = AnalysisEngineFactory.createEngineDescription(
+						processorDescs.toArray(new AnalysisEngineDescription[processorDescs.size()]));
+				for (int i = 0; i < numWorkers; i++)
+					processors.add(UIMAFramework.produceAnalysisEngine(aggregate));
+				metaData.add(processors.get(0).getProcessingResourceMetaData());
+			}
+			if (consumerDesc != null) {
+				consumer = UIMAFramework.produceAnalysisEngine(consumerDesc);
+				metaData.add(consumer.getProcessingResourceMetaData());
+			}
+			// enough CASes for every worker to have one in progress and one waiting
+			int poolSize = numWorkers * 2;
+			CasPool casPool = new CasPool(poolSize, new CasDefinition(metaData,
+					UIMAFramework.newDefaultResourceManager()), new Properties());
+			BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(poolSize);
+
+			workers = Executors.newFixedThreadPool(numWorkers, new DaemonThreadFactory("pipeline-worker"));
+			List<Future<?>> workerResults = new ArrayList<Future<?>>(numWorkers);
+			for (int i = 0; i < numWorkers; i++) {
+				AnalysisEngine processor = processors.isEmpty() ? null : processors.get(i);
+				workerResults.add(workers.submit(new Worker(queue, casPool, processor, consumer)));
+			}
+			readAll(reader, casPool, queue, workerResults);
+			for (int i = 0; i < numWorkers; i++)
+				putUntilFailed(queue, END, workerResults);
+			for (Future<?> result : workerResults)
+				awaitWorker(result);
+			if (failure.get() != null)
+				throw failure.get();
+
+			for (AnalysisEngine processor : processors)
+				processor.collectionProcessComplete();
+			if (consumer != null)
+				consumer.collectionProcessComplete();
+			LOG.info("Processed {} documents", numProcessed.get());
+		} catch (UIMAException e) {
+			throw e;
+		} catch (IOException e) {
+			throw e;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AnalysisEngineProcessException(e);
+		} catch (Exception e) {
+			throw new AnalysisEngineProcessException(e);
+		} finally {
+			if (workers != null)
+				workers.shutdownNow();
+			for (AnalysisEngine processor : processors)
+				processor.destroy();
+			if (consumer != null)
+				consumer.destroy();
+			reader.close();
+			reader.destroy();
+		}
+	}
+
+	private void readAll(CollectionReader reader, CasPool casPool, BlockingQueue<Object> queue,
+			List<Future<?>> workerResults) throws UIMAException, IOException, InterruptedException {
+		long startTime = System.currentTimeMillis();
+		long lastReport = startTime;
+		while (failure.get() == null && reader.hasNext()) {
+			CAS cas = getCasUntilFailed(casPool, workerResults);
+			if (cas == null)
+				break;
+			try {
+				reader.getNext(cas);
+			} catch (UIMAException e) {
+				casPool.releaseCas(cas);
+				throw e;
+			} catch (IOException e) {
+				casPool.releaseCas(cas);
+				throw e;
+			}
+			if (!putUntilFailed(queue, cas, workerResults)) {
+				casPool.releaseCas(cas);
+				break;
+			}
+			long now = System.currentTimeMillis();
+			if (now - lastReport >= PROGRESS_INTERVAL_MILLIS) {
+				logProgress(reader, now - startTime);
+				lastReport = now;
+			}
+		}
+	}
+
+	private void logProgress(CollectionReader reader, long elapsedMillis) {
+		long processed = numProcessed.get();
+		StringBuilder readerProgress = new StringBuilder();
+		for (Progress progress : reader.getProgress()) {
+			if (readerProgress.length() > 0)
+				readerProgress.append(", ");
+			readerProgress.append(progress.getCompleted()).append('/').append(progress.getTotal())
+					.append(' ').append(progress.getUnit());
+		}
+		LOG.info("Processed {} documents ({} per second); read {}", new Object[] {
+				processed, String.format("%.1f", processed * 1000.0 / Math.max(elapsedMillis, 1)), readerProgress});
+	}
+
+	private CAS getCasUntilFailed(CasPool casPool, List<Future<?>> workerResults) {
+		while (failure.get() == null && !workersStopped(workerResults)) {
+			CAS cas = casPool.getCas(1000);
+			if (cas != null)
+				return cas;
+		}
+		return null;
+	}
+
+	/** Put the CAS (or the end marker) on the queue, unless processing has failed */
+	private boolean putUntilFailed(BlockingQueue<Object> queue, Object item, List<Future<?>> workerResults)
+			throws InterruptedException {
+		while (failure.get() == null && !workersStopped(workerResults)) {
+			if (queue.offer(item, 1, TimeUnit.SECONDS))
+				return true;
+		}
+		return false;
+	}
+
+	/** Check whether every worker has stopped, in which case nothing will take CASes from the
+	 * queue or return them to the pool, so this is recorded as a failure if nothing else was */
+	private boolean workersStopped(List<Future<?>> workerResults) {
+		for (Future<?> result : workerResults) {
+			if (!result.isDone())
+				return false;
+		}
+		failure.compareAndSet(null, new AnalysisEngineProcessException(
+				new IllegalStateException("All pipeline workers have stopped")));
+		return true;
+	}
+
+	/** Record the first failure, wrapping errors so that they can be rethrown from {@link #run()} */
+	private void recordFailure(Throwable t) {
+		failure.compareAndSet(null, t instanceof Exception ? (Exception) t : new AnalysisEngineProcessException(t));
+	}
+
+	private void awaitWorker(Future<?> result) throws InterruptedException {
+		try {
+			result.get();
+		} catch (ExecutionException e) {
+			recordFailure(e.getCause());
+		}
+	}
+
+	// marks the end of the queue for a worker
+	private static final Object END = new Object();
+
+	private class Worker implements Runnable {
+		private final BlockingQueue<Object> queue;
+		private final CasPool casPool;
+		private final AnalysisEngine processor;
+		private final AnalysisEngine consumer;
+
+		Worker(BlockingQueue<Object> queue, CasPool casPool, AnalysisEngine processor, AnalysisEngine consumer) {
+			this.queue = queue;
+			this.casPool = casPool;
+			this.processor = processor;
+			this.consumer = consumer;
+		}
+
+		@Override
+		public void run() {
+			try {
+				processQueue();
+			} catch (Throwable t) {
+				recordFailure(t);
+			}
+		}
+
+		private void processQueue() {
+			while (true) {
+				Object item;
+				try {
+					item = queue.poll(1, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					return;
+				}
+				if (item == null) {
+					if (failure.get() != null)
+						return; // the end marker may never arrive
+					continue;
+				}
+				if (item == END)
+					return;
+				CAS cas = (CAS) item;
+				try {
+					if (failure.get() != null)
+						continue; // just discard the remaining documents
+					if (processor != null)
+						processor.process(cas);
+					if (consumer != null) {
+						synchronized (consumer) {
+							consumer.process(cas);
+						}
+					}
+					numProcessed.incrementAndGet();
+				} catch (Throwable t) { // including errors, which would otherwise stop the worker unnoticed
+					recordFailure(t);
+				} finally {
+					casPool.releaseCas(cas);
+				}
+			}
+		}
+	}
+}
@@ -12,6 +12,9 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Created by amack on 7/04/14.
@@ -36,6 +39,15 @@ public class WriteDynamicDescriptors {
 				  description = "Directory where descriptors will be written")
 		private String dirName;
 
+		@Parameter(names = { "-s", "--type-snapshot"}, required = false,
+				description = "If provided, a file where the annotation types found on the server are cached, " +
+						"which is reused instead of querying the server while it is up to date")
+		private String typeSnapshot = null;
+
+		@Parameter(names = { "--snapshot-max-age"}, required = false,
+				description = "Age in seconds after which the type snapshot is refreshed from the server")
+		private int snapshotMaxAge = 7 * 24 * 60 * 60;
+
 	}
 
 	private static String usage = String.format("Dynamically generate descriptors for " +
@@ -54,14 +66,21 @@ public class WriteDynamicDescriptors {
 			jcom.usage();
 			return;
 		}
-		writeDescriptors(params.serverUrl, params.apiKey, params.dirName);
+		writeDescriptors(params.serverUrl, params.apiKey, params.dirName, params.typeSnapshot, params.snapshotMaxAge);
 	}
 
-	private static void writeDescriptors(String serverUrl, String apiKey, String dirName)
+	private static void writeDescriptors(String serverUrl, String apiKey, String dirName, String typeSnapshot,
+			int snapshotMaxAge)
 			throws ResourceInitializationException, IOException, SAXException {
-		CollectionReaderDescription reader = ItemListCollectionReader.createDescription(
+		List<Object> confData = new ArrayList<Object>(Arrays.<Object>asList(
 				ItemListCollectionReader.PARAM_ALVEO_BASE_URL, serverUrl,
-				ItemListCollectionReader.PARAM_ALVEO_API_KEY, apiKey);
+				ItemListCollectionReader.PARAM_ALVEO_API_KEY, apiKey));
+		if (typeSnapshot != null) {
+			confData.addAll(Arrays.<Object>asList(
+					ItemListCollectionReader.PARAM_TYPE_SYSTEM_SNAPSHOT, typeSnapshot,
+					ItemListCollectionReader.PARAM_TYPE_SYSTEM_SNAPSHOT_MAX_AGE, snapshotMaxAge));
+		}
+		CollectionReaderDescription reader = ItemListCollectionReader.createDescription(confData.toArray());
 		File readerXML = new File(dirName, "ItemListCollectionReader.xml");
 		OutputStream readerOS = new BufferedOutputStream(new FileOutputStream(readerXML));
 		reader.toXML(readerOS);
@@ -0,0 +1,94 @@
+package au.edu.alveo.uima;
+
+import au.edu.alveo.client.TextRestAnnotation;
+import au.edu.alveo.client.entity.Item;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class AdaptiveUploadBatcherTest extends TestCase {
+	/** An item which stores every chunk it is sent, but fails the first <code>numFailures</code>
+	 * requests with the given exception after storing them, as if the response was lost */
+	private static class StoringItem implements InvocationHandler {
+		final List<TextRestAnnotation> stored = new ArrayList<TextRestAnnotation>();
+		final Exception failure;
+		int numFailures;
+
+		StoringItem(Exception failure, int numFailures) {
+			this.failure = failure;
+			this.numFailures = numFailures;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			if (method.getName().equals("getUri"))
+				return "http://alveo.example.org/catalog/ace/A01a";
+			if (!method.getName().equals("storeNewAnnotations"))
+				throw new UnsupportedOperationException(method.getName());
+			stored.addAll((List<TextRestAnnotation>) args[0]);
+			if (numFailures > 0) {
+				numFailures--;
+				throw new RuntimeException(failure);
+			}
+			return null;
+		}
+
+		Item item() {
+			return (Item) Proxy.newProxyInstance(Item.class.getClassLoader(), new Class<?>[] { Item.class }, this);
+		}
+	}
+
+	private static List<TextRestAnnotation> annotations(int count) {
+		List<TextRestAnnotation> anns = new ArrayList<TextRestAnnotation>();
+		for (int i = 0; i < count; i++)
+			anns.add(new TextRestAnnotation("http://example.org/type", "x", i, i + 1));
+		return anns;
+	}
+
+	public void testTimeoutNotRetriedByDefault() throws Exception {
+		StoringItem server = new StoringItem(new SocketTimeoutException("Read timed out"), 1);
+		AdaptiveUploadBatcher batcher = new AdaptiveUploadBatcher(4, 1, 8, 60000, 3, 1, false);
+		try {
+			batcher.upload(server.item(), annotations(4));
+			fail("A timed-out chunk should not be retried");
+		} catch (RuntimeException e) {
+			assertTrue(e.getCause() instanceof SocketTimeoutException);
+		}
+		assertEquals(4, server.stored.size());
+		assertEquals(2, batcher.getChunkSize());
+	}
+
+	public void testTimeoutRetriedWhenRequested() throws Exception {
+		StoringItem server = new StoringItem(new SocketTimeoutException("Read timed out"), 1);
+		AdaptiveUploadBatcher batcher = new AdaptiveUploadBatcher(4, 1, 8, 60000, 3, 1, true);
+		batcher.upload(server.item(), annotations(4));
+		// the chunk which timed out is stored again, in smaller chunks
+		assertEquals(8, server.stored.size());
+	}
+
+	public void testOtherIOErrorsRetried() throws Exception {
+		StoringItem server = new StoringItem(new IOException("Connection refused"), 2);
+		AdaptiveUploadBatcher batcher = new AdaptiveUploadBatcher(4, 1, 8, 60000, 3, 1, false);
+		batcher.upload(server.item(), annotations(3));
+		assertEquals(9, server.stored.size());
+	}
+
+	public void testNonTransientFailureNotRetried() throws Exception {
+		StoringItem server = new StoringItem(new IllegalArgumentException("bad"), 1);
+		AdaptiveUploadBatcher batcher = new AdaptiveUploadBatcher(4, 1, 8, 60000, 3, 1, true);
+		try {
+			batcher.upload(server.item(), annotations(2));
+			fail("Expected the failure to be passed on");
+		} catch (RuntimeException e) {
+			assertEquals("bad", e.getCause().getMessage());
+		}
+		assertEquals(2, server.stored.size());
+	}
+}
@@ -0,0 +1,52 @@
+package au.edu.alveo.uima;
+
+import au.edu.alveo.client.entity.Item;
+import junit.framework.TestCase;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+public class FetchedItemsTest extends TestCase {
+	private static Item item(final String uri) {
+		return (Item) Proxy.newProxyInstance(Item.class.getClassLoader(), new Class<?>[] { Item.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if (method.getName().equals("getUri"))
+							return uri;
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+	}
+
+	public void testItemsOnlyKeptOnceAnUploaderWantsThem() {
+		String server = "http://alveo.example.org/wanted/";
+		FetchedItems reader = FetchedItems.forReader(server, "key");
+		reader.offer(item(server + "catalog/ace/A01a"));
+		FetchedItems uploader = FetchedItems.forUploader(server, "key");
+		assertNull(uploader.take(server + "catalog/ace/A01a"));
+
+		Item item = item(server + "catalog/ace/A01b");
+		reader.offer(item);
+		assertSame(item, uploader.take(server + "catalog/ace/A01b"));
+		assertNull(uploader.take(server + "catalog/ace/A01b")); // taken already
+	}
+
+	public void testItemsNotSharedBetweenApiKeys() {
+		String server = "http://alveo.example.org/keys/";
+		FetchedItems uploader = FetchedItems.forUploader(server, "upload-key");
+		FetchedItems.forUploader(server, "read-key").offer(item(server + "catalog/ace/A01a"));
+		assertNull(uploader.take(server + "catalog/ace/A01a"));
+	}
+
+	public void testOldestItemsDropped() {
+		String server = "http://alveo.example.org/bounded/";
+		FetchedItems fetched = FetchedItems.forUploader(server, "key");
+		for (int i = 0; i <= FetchedItems.MAX_ITEMS; i++)
+			fetched.offer(item(server + i));
+		assertNull(fetched.take(server + 0));
+		assertNotNull(fetched.take(server + 1));
+		assertNotNull(fetched.take(server + FetchedItems.MAX_ITEMS));
+	}
+}
@@ -0,0 +1,55 @@
+package au.edu.alveo.uima;
+
+import au.edu.alveo.uima.conversions.DefaultUIMAToAlveoAnnConverter;
+import au.edu.alveo.uima.types.AlveoItemSource;
+import au.edu.alveo.uima.types.GeneratedItemAnnotation;
+import junit.framework.TestCase;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.util.JCasUtil;
+import org.apache.uima.jcas.JCas;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ItemAnnotationUploaderTest extends TestCase {
+	private static final String ITEM_URI = "http://alveo.example.org/catalog/ace/A01a";
+
+	private JCas jcas;
+	private AlveoItemSource itemSource;
+
+	@Override
+	protected void setUp() throws Exception {
+		Map<String, String> metadata = new HashMap<String, String>();
+		metadata.put("http://www.language-archives.org/OLAC/1.1/language", "eng");
+		List<ItemSnapshot.Annotation> anns = Arrays.asList(
+				new ItemSnapshot.Annotation("http://ns.ausnc.org.au/schemas/annotation/ice/speaker", "A", 0, 12),
+				new ItemSnapshot.Annotation("http://ns.ausnc.org.au/schemas/annotation/ice/speaker", "B", 13, 24),
+				new ItemSnapshot.Annotation("http://ns.ausnc.org.au/schemas/annotation/ice/sentence", "", 0, 24));
+		ItemSnapshot item = new ItemSnapshot(ITEM_URI, "Hello there. Hello again.", metadata, anns,
+				new ArrayList<ItemSnapshot.Document>());
+		jcas = JCasFactory.createJCas();
+		new ItemCASAdapter("http://alveo.example.org/", false, true, new DefaultUIMAToAlveoAnnConverter())
+				.storeItemInCas(item, jcas.getCas());
+		itemSource = JCasUtil.selectSingle(jcas, AlveoItemSource.class);
+	}
+
+	public void testUnchangedReaderCasHasNothingToUpload() {
+		ItemAnnotationUploader uploader = new ItemAnnotationUploader();
+		List<AnnotationFS> origAnns = uploader.readerAnnotations(jcas.getCas(), itemSource, itemSource.getAnnotations());
+		assertEquals(3, origAnns.size());
+		assertEquals(new ArrayList<AnnotationFS>(), uploader.uploadCandidates(jcas.getCas(), true));
+	}
+
+	public void testAddedAnnotationIsTheOnlyCandidate() {
+		GeneratedItemAnnotation added = new GeneratedItemAnnotation(jcas, 0, 5);
+		added.setLabel("greeting");
+		added.addToIndexes();
+		ItemAnnotationUploader uploader = new ItemAnnotationUploader();
+		uploader.readerAnnotations(jcas.getCas(), itemSource, itemSource.getAnnotations());
+		assertEquals(Arrays.<AnnotationFS>asList(added), uploader.uploadCandidates(jcas.getCas(), true));
+	}
+}
@@ -0,0 +1,50 @@
+package au.edu.alveo.uima;
+
+import au.edu.alveo.uima.conversions.DefaultUIMAToAlveoAnnConverter;
+import au.edu.alveo.uima.types.AlveoItemSource;
+import junit.framework.TestCase;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.util.JCasUtil;
+import org.apache.uima.jcas.JCas;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class ItemCASAdapterTest extends TestCase {
+	private static class CountingConverter extends DefaultUIMAToAlveoAnnConverter {
+		int typeSystemsSet = 0;
+
+		@Override
+		public void setTypeSystem(TypeSystem ts) {
+			typeSystemsSet++;
+			super.setTypeSystem(ts);
+		}
+	}
+
+	private static ItemSnapshot item(String typeUri) {
+		Map<String, String> metadata = new HashMap<String, String>();
+		metadata.put("http://www.language-archives.org/OLAC/1.1/language", "eng");
+		return new ItemSnapshot("http://alveo.example.org/catalog/ace/A01a", "Hello there.", metadata,
+				Arrays.asList(new ItemSnapshot.Annotation(typeUri, "x", 0, 5)), new ArrayList<ItemSnapshot.Document>());
+	}
+
+	public void testIndexBuiltOncePerTypeSystem() throws Exception {
+		CountingConverter converter = new CountingConverter();
+		ItemCASAdapter adapter = new ItemCASAdapter("http://alveo.example.org/", false, true, converter);
+		String typeUri = converter.getAlveoTypeUriForTypeName("au.edu.alveo.uima.types.GeneratedItemAnnotation");
+		// each CAS has its own type system, and the CASes are used alternately
+		JCas[] cases = new JCas[] { JCasFactory.createJCas(), JCasFactory.createJCas() };
+		for (int i = 0; i < 6; i++) {
+			JCas cas = cases[i % 2];
+			cas.reset();
+			adapter.storeItemInCas(item(typeUri), cas.getCas());
+			AlveoItemSource itemSource = JCasUtil.selectSingle(cas, AlveoItemSource.class);
+			assertEquals("au.edu.alveo.uima.types.GeneratedItemAnnotation",
+					itemSource.getAnnotations(0).getType().getName());
+		}
+		assertEquals(2, converter.typeSystemsSet);
+	}
+}
@@ -0,0 +1,96 @@
+package au.edu.alveo.uima;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public class ItemCheckpointTest extends TestCase {
+	private File file;
+
+	@Override
+	protected void setUp() throws IOException {
+		file = File.createTempFile("checkpoint-test-", ".txt");
+	}
+
+	@Override
+	protected void tearDown() {
+		file.delete();
+	}
+
+	private void write(String contents) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(contents.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	private String read() throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[4096];
+			int n;
+			while ((n = in.read(buf)) > 0)
+				out.write(buf, 0, n);
+			return out.toString("UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+
+	public void testPartlyWrittenLineIgnored() throws IOException {
+		write("http://a/A011\nhttp://a/A01");
+		ItemCheckpoint checkpoint = ItemCheckpoint.open(file);
+		try {
+			assertTrue(checkpoint.isCompleted("http://a/A011"));
+			assertFalse(checkpoint.isCompleted("http://a/A01"));
+			assertEquals(1, checkpoint.getNumCompleted());
+		} finally {
+			checkpoint.release();
+		}
+	}
+
+	public void testPartlyWrittenLineReplacedWhenAppending() throws IOException {
+		write("http://a/A011\nhttp://a/A01");
+		ItemCheckpoint checkpoint = ItemCheckpoint.open(file);
+		try {
+			checkpoint.markCompleted("http://a/A013");
+		} finally {
+			checkpoint.release();
+		}
+		assertEquals("http://a/A011\nhttp://a/A013\n", read());
+	}
+
+	public void testSharedUntilReleasedByAllUsers() throws IOException {
+		ItemCheckpoint first = ItemCheckpoint.open(file);
+		ItemCheckpoint second = ItemCheckpoint.open(file);
+		assertSame(first, second);
+		first.markCompleted("http://a/1");
+		first.release();
+		second.markCompleted("http://a/2");
+		second.release();
+		try {
+			second.markCompleted("http://a/3");
+			fail("A released checkpoint should not be written");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals("http://a/1\nhttp://a/2\n", read());
+
+		ItemCheckpoint reopened = ItemCheckpoint.open(file);
+		try {
+			assertNotSame(first, reopened);
+			assertEquals(2, reopened.getNumCompleted());
+		} finally {
+			reopened.release();
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package au.edu.alveo.uima;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+public class ItemListPagerTest extends TestCase {
+	private final List<ItemListPager> pagers = new ArrayList<ItemListPager>();
+
+	@Override
+	protected void tearDown() {
+		for (ItemListPager pager : pagers)
+			pager.close();
+	}
+
+	private ItemListPager pagerFor(String json) throws IOException {
+		File listFile = File.createTempFile("item-list-test-", ".json");
+		OutputStream out = new FileOutputStream(listFile);
+		try {
+			out.write(json.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		ItemListPager pager = ItemListPager.fromFile(listFile);
+		pagers.add(pager);
+		return pager;
+	}
+
+	private static List<String> uris(ItemListPager pager) throws IOException {
+		List<String> uris = new ArrayList<String>();
+		for (Iterator<String> it = pager.itemUris(); it.hasNext(); )
+			uris.add(it.next());
+		return uris;
+	}
+
+	private static void assertMalformed(String json) {
+		File listFile = null;
+		try {
+			listFile = File.createTempFile("item-list-test-", ".json");
+			OutputStream out = new FileOutputStream(listFile);
+			try {
+				out.write(json.getBytes("UTF-8"));
+			} finally {
+				out.close();
+			}
+			ItemListPager.fromFile(listFile).close();
+			fail("Expected IOException for " + json);
+		} catch (IOException e) {
+			assertFalse("The list file should be deleted", listFile.exists());
+		}
+	}
+
+	public void testItemsAfterCount() throws IOException {
+		ItemListPager pager = pagerFor("{\"name\": \"mine\", \"num_items\": 2, \"items\": [\"http://a/1\", \"http://a/2\"]}");
+		assertEquals("mine", pager.getName());
+		assertEquals(2, pager.getNumItems());
+		assertEquals(Arrays.asList("http://a/1", "http://a/2"), uris(pager));
+	}
+
+	public void testItemsBeforeCount() throws IOException {
+		ItemListPager pager = pagerFor("{\"items\": [\"http://a/1\", \"http://a/2\"], \"num_items\": 2, \"name\": \"mine\"}");
+		assertEquals("mine", pager.getName());
+		assertEquals(2, pager.getNumItems());
+		assertEquals(Arrays.asList("http://a/1", "http://a/2"), uris(pager));
+	}
+
+	public void testItemsCountedWithoutCount() throws IOException {
+		ItemListPager pager = pagerFor("{\"items\": [\"http://a/1\", \"http://a/2\", \"http://a/3\"]}");
+		assertNull(pager.getName());
+		assertEquals(3, pager.getNumItems());
+		assertEquals(3, uris(pager).size());
+	}
+
+	public void testOtherValuesSkipped() throws IOException {
+		ItemListPager pager = pagerFor("{\"shared\": false, \"owner\": {\"name\": \"x\", \"ids\": [1, 2, {}]}, " +
+				"\"extra\": null, \"num_items\": 1, \"items\": [\"http://a/1\"], \"after\": [[]]}");
+		assertNull(pager.getName());
+		assertEquals(Arrays.asList("http://a/1"), uris(pager));
+	}
+
+	public void testWhitespace() throws IOException {
+		ItemListPager pager = pagerFor(" \r\n{\n\t\"name\" :\t\"mine\" ,\r\n  \"num_items\" : 2 ,\n  \"items\" : [\n" +
+				"    \"http://a/1\" ,\n    \"http://a/2\"\n  ]\n}\n");
+		assertEquals(2, pager.getNumItems());
+		assertEquals(Arrays.asList("http://a/1", "http://a/2"), uris(pager));
+	}
+
+	public void testEscapes() throws IOException {
+		ItemListPager pager = pagerFor("{\"name\": \"a\\\"b\\\\c\\/d\\n\\t\\u00e9\\uD83D\\ude00\", " +
+				"\"items\": [\"http://a/caf\\u00E9\"]}");
+		assertEquals("a\"b\\c/d\n\té😀", pager.getName());
+		assertEquals(Arrays.asList("http://a/café"), uris(pager));
+	}
+
+	public void testEntriesCountedWhenCountIsWrong() throws IOException {
+		ItemListPager pager = pagerFor("{\"num_items\": 5, \"items\": [\"http://a/1\", \"http://a/2\", \"http://a/3\"]}");
+		assertEquals(5, pager.getNumItems());
+		assertEquals(3, pager.getNumEntries());
+		pager = pagerFor("{\"items\": [\"http://a/1\"], \"num_items\": 0}");
+		assertEquals(1, pager.getNumEntries());
+		assertEquals(pager.getNumEntries(), uris(pager).size());
+	}
+
+	public void testEmptyList() throws IOException {
+		assertEquals(0, uris(pagerFor("{\"name\": \"empty\", \"num_items\": 0, \"items\": []}")).size());
+		assertEquals(0, uris(pagerFor("{\"items\": []}")).size());
+		assertEquals(0, uris(pagerFor("{}")).size());
+		assertEquals(0, pagerFor("{}").getNumItems());
+	}
+
+	public void testMultiplePages() throws IOException {
+		int numItems = ItemListPager.PAGE_SIZE * 2 + 5;
+		StringBuilder json = new StringBuilder("{\"num_items\": " + numItems + ", \"items\": [");
+		for (int i = 0; i < numItems; i++)
+			json.append(i > 0 ? ", " : "").append("\"http://a/").append(i).append('"');
+		json.append("]}");
+		ItemListPager pager = pagerFor(json.toString());
+		List<String> uris = uris(pager);
+		assertEquals(numItems, uris.size());
+		assertEquals("http://a/" + (numItems - 1), uris.get(numItems - 1));
+		assertEquals(uris, uris(pager)); // each iteration starts again from the beginning
+	}
+
+	public void testTruncated() {
+		assertMalformed("");
+		assertMalformed("{\"name\": \"mine\", \"num_items\": 2, \"items\": [\"http://a/1\", \"http://a/");
+		assertMalformed("{\"name\": \"mine\", \"num_items\": 2, \"items\": [\"http://a/1\", \"http://a/2\"]");
+		assertMalformed("{\"name\": \"mine\\u00");
+	}
+
+	public void testMalformed() {
+		assertMalformed("[\"http://a/1\"]");
+		assertMalformed("{\"name\": \"bad\\u00zz\", \"items\": []}");
+		assertMalformed("{\"num_items\": -1, \"items\": []}");
+		assertMalformed("{\"num_items\": 2x, \"items\": []}");
+		assertMalformed("{\"items\": [\"http://a/1\" \"http://a/2\"]}");
+		assertMalformed("{\"items\": [\"http://a/1\", 2]}");
+	}
+}
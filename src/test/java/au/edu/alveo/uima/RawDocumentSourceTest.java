@@ -0,0 +1,69 @@
+package au.edu.alveo.uima;
+
+import au.edu.alveo.uima.conversions.DefaultUIMAToAlveoAnnConverter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.TestCase;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.JCasFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class RawDocumentSourceTest extends TestCase {
+	private HttpServer server;
+	private String baseUrl;
+
+	@Override
+	protected void setUp() throws IOException {
+		// each document's text is the API key it was requested with
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] body = exchange.getRequestHeaders().getFirst("X-API-KEY").getBytes("UTF-8");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		server.start();
+		baseUrl = "http://localhost:" + server.getAddress().getPort() + "/";
+	}
+
+	@Override
+	protected void tearDown() {
+		server.stop(0);
+	}
+
+	/** Store an item with a single lazily-retrieved document as a reader with the supplied key would */
+	private CAS lazyDocumentView(String apiKey) throws Exception {
+		ItemCASAdapter adapter = new ItemCASAdapter(baseUrl, true, true, false, new DefaultUIMAToAlveoAnnConverter());
+		adapter.setRawDocSourceId(RawDocumentSource.register(baseUrl, apiKey, 10).getId());
+		Map<String, String> metadata = new HashMap<String, String>();
+		metadata.put("http://www.language-archives.org/OLAC/1.1/language", "eng");
+		ItemSnapshot item = new ItemSnapshot(baseUrl + "catalog/ace/A01a", "Hello there.", metadata, null,
+				Arrays.asList(new ItemSnapshot.Document("Original", baseUrl + "catalog/ace/A01a/document/a.txt", null)));
+		CAS cas = JCasFactory.createJCas().getCas();
+		adapter.storeItemInCas(item, cas);
+		return cas.getView("02: Original");
+	}
+
+	public void testReadersWithDifferentKeysForOneServer() throws Exception {
+		CAS first = lazyDocumentView("key-1");
+		CAS second = lazyDocumentView("key-2");
+		assertNotSame(RawDocumentSource.register(baseUrl, "key-1", 10), RawDocumentSource.register(baseUrl, "key-2", 10));
+		assertEquals("key-1", RawDocumentSource.getRawText(first));
+		assertEquals("key-2", RawDocumentSource.getRawText(second));
+	}
+
+	public void testIdDoesNotContainKey() {
+		assertFalse(RawDocumentSource.register(baseUrl, "secret-key", 10).getId().contains("secret-key"));
+	}
+}
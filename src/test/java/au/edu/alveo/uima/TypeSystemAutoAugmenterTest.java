@@ -0,0 +1,68 @@
+package au.edu.alveo.uima;
+
+import junit.framework.TestCase;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.resource.metadata.impl.TypeSystemDescription_impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Scanner;
+
+public class TypeSystemAutoAugmenterTest extends TestCase {
+	private static final String SERVER = "http://alveo.example.org/";
+	private static final String SPEAKER = "http://ns.ausnc.org.au/schemas/annotation/ice/speaker";
+	private File file;
+
+	@Override
+	protected void setUp() throws IOException {
+		file = File.createTempFile("type-snapshot-test-", ".txt");
+	}
+
+	@Override
+	protected void tearDown() {
+		file.delete();
+	}
+
+	private void saveSnapshot(String apiKey) throws Exception {
+		TypeSystemAutoAugmenter tsag = new TypeSystemAutoAugmenter(null, new TypeSystemDescription_impl());
+		tsag.addCorpusTypes("ice", Collections.singletonList(SPEAKER));
+		tsag.saveSnapshot(file, SERVER, apiKey);
+	}
+
+	public void testSnapshotReadBack() throws Exception {
+		saveSnapshot("key-1");
+		TypeSystemDescription tsd = new TypeSystemDescription_impl();
+		assertTrue(new TypeSystemAutoAugmenter(null, tsd).loadSnapshot(file, SERVER, "key-1",
+				Collections.singletonList("ice"), 0));
+		assertNotNull(tsd.getType("au.org.ausnc.ns.schemas.annotation.ice.Speaker"));
+	}
+
+	public void testSnapshotForAnotherApiKeyIgnored() throws Exception {
+		saveSnapshot("key-1");
+		TypeSystemDescription tsd = new TypeSystemDescription_impl();
+		assertFalse(new TypeSystemAutoAugmenter(null, tsd).loadSnapshot(file, SERVER, "key-2",
+				Collections.singletonList("ice"), 0));
+		assertEquals(0, tsd.getTypes().length);
+	}
+
+	public void testApiKeyNotStored() throws Exception {
+		saveSnapshot("key-1");
+		Scanner in = new Scanner(file, "UTF-8");
+		try {
+			assertNull(in.findWithinHorizon("key-1", 0));
+		} finally {
+			in.close();
+		}
+	}
+
+	public void testMissingCorporaLeftToQuery() throws Exception {
+		saveSnapshot("key-1");
+		TypeSystemDescription tsd = new TypeSystemDescription_impl();
+		// "austalk" was not saved, like a collection whose query failed
+		assertFalse(new TypeSystemAutoAugmenter(null, tsd).loadSnapshot(file, SERVER, "key-1",
+				Arrays.asList("ice", "austalk"), 0));
+		assertNotNull(tsd.getType("au.org.ausnc.ns.schemas.annotation.ice.Speaker"));
+	}
+}
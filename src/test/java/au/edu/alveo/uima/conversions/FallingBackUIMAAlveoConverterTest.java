@@ -0,0 +1,80 @@
+package au.edu.alveo.uima.conversions;
+
+import au.edu.alveo.client.TextRestAnnotation;
+import junit.framework.TestCase;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.resource.metadata.impl.TypeSystemDescription_impl;
+import org.apache.uima.util.CasCreationUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class FallingBackUIMAAlveoConverterTest extends TestCase {
+	/** Handles a single type name, and records the annotations it is asked to convert */
+	private static class SingleTypeConverter implements UIMAToAlveoAnnConverter {
+		final String typeName;
+		final List<AnnotationFS> converted = new ArrayList<AnnotationFS>();
+
+		SingleTypeConverter(String typeName) {
+			this.typeName = typeName;
+		}
+
+		@Override
+		public void setTypeSystem(TypeSystem ts) {
+		}
+
+		@Override
+		public TextRestAnnotation convertToAlveo(AnnotationFS ann) {
+			converted.add(ann);
+			return new TextRestAnnotation(getAlveoTypeUriForTypeName(ann.getType().getName()), "",
+					ann.getBegin(), ann.getEnd());
+		}
+
+		@Override
+		public String getAlveoTypeUriForTypeName(String uimaTypeName) {
+			return UIMAAlveoTypeNameMapping.getUriForTypeName(uimaTypeName);
+		}
+
+		@Override
+		public boolean handlesTypeName(String uimaTypeName) {
+			return uimaTypeName.equals(typeName);
+		}
+	}
+
+	/** A CAS whose type system has a single annotation type added to the built-in ones */
+	private static CAS casWithType(String typeName) throws Exception {
+		TypeSystemDescription tsd = new TypeSystemDescription_impl();
+		tsd.addType(typeName, "", CAS.TYPE_NAME_ANNOTATION);
+		CAS cas = CasCreationUtils.createCas(tsd, null, null);
+		cas.setDocumentText("Hello there.");
+		return cas;
+	}
+
+	private static AnnotationFS annotation(CAS cas, String typeName) {
+		return cas.createAnnotation(cas.getTypeSystem().getType(typeName), 0, 5);
+	}
+
+	public void testTypeFromAnotherTypeSystem() throws Exception {
+		CAS first = casWithType("org.example.First");
+		CAS second = casWithType("org.example.Second");
+		SingleTypeConverter firstConv = new SingleTypeConverter("org.example.First");
+		SingleTypeConverter secondConv = new SingleTypeConverter("org.example.Second");
+		FallingBackUIMAAlveoConverter converter = new FallingBackUIMAAlveoConverter(firstConv, secondConv);
+		converter.setTypeSystem(first.getTypeSystem());
+
+		AnnotationFS firstAnn = annotation(first, "org.example.First");
+		AnnotationFS secondAnn = annotation(second, "org.example.Second");
+		// the two types were added to the same built-in types, so they share a code
+		assertEquals(TypeCodes.codeOf(firstAnn.getType()), TypeCodes.codeOf(secondAnn.getType()));
+
+		converter.convertToAlveo(firstAnn);
+		converter.convertToAlveo(secondAnn);
+		converter.convertAllToAlveo(Arrays.asList(firstAnn, secondAnn));
+		assertEquals(Arrays.asList(firstAnn, firstAnn), firstConv.converted);
+		assertEquals(Arrays.asList(secondAnn, secondAnn), secondConv.converted);
+	}
+}
@@ -0,0 +1,70 @@
+package au.edu.alveo.uima.conversions;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Stack;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The original regex-based implementation of {@link UIMAAlveoTypeNameMapping}, which the tests
+ * compare it with and the benchmarks use as a baseline (they depend on the test jar for it)
+ */
+class RegexMapping {
+	static String getTypeNameForUri(String typeURI) throws URISyntaxException {
+		URI uri = new URI(typeURI);
+		Stack<String> packageComps = new Stack<String>();
+		if (uri.getHost() == null)
+			throw new URISyntaxException(typeURI, "URI has no hostname component");
+		String[] origHostComps = uri.getHost().split("\\.");
+		for (int i = origHostComps.length - 1; i >= 0; i--)
+			packageComps.add(sanitizeLower(origHostComps[i]));
+		for (String pathComp : uri.getPath().split("/")) {
+			if (!pathComp.isEmpty())
+				packageComps.add(pathComp);
+		}
+		if (uri.getFragment() != null)
+			packageComps.add(uri.getFragment());
+		String typeName = sanitizeUpperCamel(packageComps.pop());
+		StringBuffer fqTypeName = new StringBuffer();
+		for (String pc : packageComps) {
+			fqTypeName.append(sanitizeLower(pc));
+			fqTypeName.append(".");
+		}
+		fqTypeName.append(typeName);
+		return fqTypeName.toString();
+	}
+
+	private static String sanitizeLower(String source) {
+		return prefixNumerals(source.replaceAll("\\W+", ""));
+	}
+
+	private static String sanitizeUpperCamel(String source) {
+		StringBuffer camelCased = new StringBuffer();
+		Matcher m = Pattern.compile("(?:^|\\W+)(\\w)?").matcher(source);
+		while (m.find())
+			m.appendReplacement(camelCased, m.group(1).toUpperCase());
+		m.appendTail(camelCased);
+		return prefixNumerals(camelCased.toString());
+	}
+
+	private static String prefixNumerals(String s) {
+		if (s.length() > 0 && Character.isDigit(s.codePointAt(0)))
+			return "N" + s;
+		else
+			return s;
+	}
+
+	static String getUriForTypeName(String name) {
+		String[] comps = name.split("\\.");
+		StringBuilder sb = new StringBuilder("http://");
+		sb.append(comps[comps.length - 2]);
+		for (int i = comps.length - 3; i >= 0; i--) {
+			sb.append(".");
+			sb.append(comps[i]);
+		}
+		sb.append("/");
+		sb.append(comps[comps.length - 1]);
+		return sb.toString();
+	}
+}
@@ -0,0 +1,100 @@
+package au.edu.alveo.uima.conversions;
+
+import junit.framework.TestCase;
+
+import java.net.URISyntaxException;
+
+public class UIMAAlveoTypeNameMappingTest extends TestCase {
+	/** Type URIs which are mapped the same way by the original regex-based implementation */
+	private static final String[] TYPE_URIS = {
+			"http://ns.ausnc.org.au/schemas/annotation/ice/speaker",
+			"http://ns.ausnc.org.au/schemas/annotation/maus/phonetic-label",
+			"http://ns.ausnc.org.au/schemas/annotation/mitcheldelbridge/elongation",
+			"http://purl.org/dada/schema/0.2#span",
+			"http://Example.ORG/Types/Speaker",
+			"http://user@example.org:8080/types/x?q=1#y",
+			"http://example.org/",
+			"http://example.org",
+			// trailing or repeated separators
+			"http://example.org/types/speaker/",
+			"http://example.org/types//speaker//",
+			"http://example.org/types/a--b__c",
+			"http://x.org/p/q%20r",
+			// digits
+			"http://3com.example-host.org/a/b/c_d",
+			"http://2.example.org/9a/x",
+			"http://example.org/types/2nd-speaker",
+			"http://example.org/types/speaker2",
+			// non-ASCII characters, which are dropped
+			"http://example.org/types/caf%C3%A9-label",
+			"http://example.org/\u00fcn\u00ef/label",
+			"http://example.org/types/caf\u00e9-label",
+			// invalid
+			"http://ex\u00e4mple.org/x",
+			"http://example.org/types/phonetic label",
+			"urn:isbn:123",
+			"not a uri",
+	};
+
+	/** Type URIs for which the original implementation threw a NullPointerException */
+	private static final String[][] CHANGED_TYPE_URIS = {
+			{ "http://example.org/types/speaker-", "org.example.types.Speaker" },
+			{ "http://example.org/types/-speaker", "org.example.types.Speaker" },
+			{ "http://example.org/schema#", null },
+			{ "http://example.org/schema/#", null },
+			{ "http://example.org/types/caf\u00e9", "org.example.types.Caf" },
+			{ "http://example.org/types/%E2%82%AC", null },
+	};
+
+	private static final String[] TYPE_NAMES = {
+			"uima.cas.TOP",
+			"au.edu.alveo.uima.types.ItemAnnotation",
+			"org.example.N2ndSpeaker",
+			"org.example.Caf\u00e9",
+			"a.b",
+			"a.b.",
+			"x..y.Z",
+			".a.b",
+			"a",
+	};
+
+	private static String typeNameOrFailure(String uri, boolean regex) {
+		try {
+			return regex ? RegexMapping.getTypeNameForUri(uri) : UIMAAlveoTypeNameMapping.getTypeNameForUri(uri);
+		} catch (Exception e) {
+			return e.getClass().getName();
+		}
+	}
+
+	private static String uriOrFailure(String name, boolean regex) {
+		try {
+			return regex ? RegexMapping.getUriForTypeName(name) : UIMAAlveoTypeNameMapping.getUriForTypeName(name);
+		} catch (Exception e) {
+			return e.getClass().getName();
+		}
+	}
+
+	public void testTypeNamesMatchRegexMapping() {
+		for (String uri : TYPE_URIS) {
+			String expected = typeNameOrFailure(uri, true);
+			assertEquals(uri, expected, typeNameOrFailure(uri, false));
+			assertEquals(uri, expected, typeNameOrFailure(uri, false)); // and again from the cache
+		}
+	}
+
+	public void testTypeNamesWhereRegexMappingFailed() {
+		for (String[] row : CHANGED_TYPE_URIS) {
+			assertEquals(row[0], NullPointerException.class.getName(), typeNameOrFailure(row[0], true));
+			String expected = row[1] != null ? row[1] : URISyntaxException.class.getName();
+			assertEquals(row[0], expected, typeNameOrFailure(row[0], false));
+		}
+	}
+
+	public void testUrisMatchRegexMapping() {
+		for (String name : TYPE_NAMES) {
+			String expected = uriOrFailure(name, true);
+			assertEquals(name, expected, uriOrFailure(name, false));
+			assertEquals(name, expected, uriOrFailure(name, false));
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package au.edu.alveo.uima.examples;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class CasArchiveTest extends TestCase {
+	private File dir;
+
+	@Override
+	protected void setUp() throws IOException {
+		dir = File.createTempFile("cas-archive-test-", "");
+		dir.delete();
+		dir.mkdir();
+	}
+
+	@Override
+	protected void tearDown() {
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	private void appendToIndex(String text) throws IOException {
+		OutputStream out = new FileOutputStream(new File(dir, CasArchive.INDEX_BASENAME), true);
+		try {
+			out.write(text.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	public void testEntriesReadBack() throws IOException {
+		CasArchive archive = new CasArchive(dir, 1 << 20);
+		archive.append(new byte[] { 1, 2, 3 }, CasFileFormats.BINARY, Arrays.asList("http://a/1", "http://a/2"));
+		archive.append(new byte[] { 4, 5 }, CasFileFormats.XMI_GZIP, Collections.<String>emptyList());
+		archive.close();
+
+		List<CasArchive.Entry> entries = CasArchive.readIndex(dir);
+		assertEquals(2, entries.size());
+		assertEquals(Arrays.asList("http://a/1", "http://a/2"), entries.get(0).itemUris);
+		assertEquals(CasFileFormats.XMI_GZIP, entries.get(1).format);
+		assertEquals(0, entries.get(1).itemUris.size());
+		RandomAccessFile shard = new RandomAccessFile(new File(dir, entries.get(1).shardName), "r");
+		try {
+			assertTrue(Arrays.equals(new byte[] { 4, 5 }, CasArchive.readEntry(shard, entries.get(1))));
+		} finally {
+			shard.close();
+		}
+	}
+
+	public void testPartlyWrittenLineIgnored() throws IOException {
+		CasArchive archive = new CasArchive(dir, 1 << 20);
+		archive.append(new byte[] { 1, 2, 3 }, CasFileFormats.XMI_GZIP, Arrays.asList("http://a/1"));
+		archive.close();
+		// cut short after the "xmi" of "xmi-gzip", which is a valid format on its own
+		appendToIndex("http://a/2\tshard_00000.dat\t11\t3\txmi");
+		assertEquals(1, CasArchive.readIndex(dir).size());
+
+		archive = new CasArchive(dir, 1 << 20);
+		archive.append(new byte[] { 4 }, CasFileFormats.XMI, Arrays.asList("http://a/3"));
+		archive.close();
+		List<CasArchive.Entry> entries = CasArchive.readIndex(dir);
+		assertEquals(2, entries.size());
+		assertEquals(Arrays.asList("http://a/3"), entries.get(1).itemUris);
+		assertEquals("shard_00001.dat", entries.get(1).shardName);
+	}
+}
@@ -0,0 +1,77 @@
+package au.edu.alveo.uima.utils;
+
+import junit.framework.TestCase;
+import org.apache.uima.analysis_engine.AnalysisEngineDescription;
+import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.collection.CollectionException;
+import org.apache.uima.fit.component.CasAnnotator_ImplBase;
+import org.apache.uima.fit.component.CasCollectionReader_ImplBase;
+import org.apache.uima.fit.factory.AnalysisEngineFactory;
+import org.apache.uima.fit.factory.CollectionReaderFactory;
+import org.apache.uima.util.Progress;
+import org.apache.uima.util.ProgressImpl;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ParallelPipelineTest extends TestCase {
+	private static final int NUM_DOCUMENTS = 100;
+
+	public static class CountingReader extends CasCollectionReader_ImplBase {
+		private int numRead = 0;
+
+		@Override
+		public void getNext(CAS cas) throws CollectionException {
+			cas.setDocumentText("Document " + numRead++);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return numRead < NUM_DOCUMENTS;
+		}
+
+		@Override
+		public Progress[] getProgress() {
+			return new Progress[] { new ProgressImpl(numRead, NUM_DOCUMENTS, Progress.ENTITIES) };
+		}
+	}
+
+	public static class FailingAnnotator extends CasAnnotator_ImplBase {
+		@Override
+		public void process(CAS cas) throws AnalysisEngineProcessException {
+			throw new AssertionError("failed on " + cas.getDocumentText());
+		}
+	}
+
+	/** Run the pipeline on another thread, failing if it doesn't finish in time */
+	private static Throwable runPipeline(final AnalysisEngineDescription processor, final int numWorkers)
+			throws Exception {
+		final AtomicReference<Throwable> thrown = new AtomicReference<Throwable>();
+		Thread runner = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					new ParallelPipeline(CollectionReaderFactory.createReaderDescription(CountingReader.class),
+							Collections.singletonList(processor), null, numWorkers).run();
+				} catch (Throwable t) {
+					thrown.set(t);
+				}
+			}
+		});
+		runner.setDaemon(true);
+		runner.start();
+		runner.join(60000);
+		assertFalse("The pipeline should not hang", runner.isAlive());
+		return thrown.get();
+	}
+
+	public void testErrorInEngineFailsPipeline() throws Exception {
+		Throwable thrown = runPipeline(AnalysisEngineFactory.createEngineDescription(FailingAnnotator.class), 2);
+		assertTrue(String.valueOf(thrown), thrown instanceof AnalysisEngineProcessException);
+		Throwable cause = thrown;
+		while (cause.getCause() != null && !(cause instanceof AssertionError))
+			cause = cause.getCause();
+		assertTrue(String.valueOf(thrown), cause instanceof AssertionError);
+	}
+}